@@ -0,0 +1,19 @@
+// plain int[n][n] tables, as built by Floyd-Warshall
+class ArrayDistanceTable implements DistanceTable
+{
+	private final int[][] apsp;
+	private final int[][] path;
+	private final int[][] via;
+
+	ArrayDistanceTable(int[][] apsp, int[][] path, int[][] via)
+	{
+		this.apsp = apsp;
+		this.path = path;
+		this.via = via;
+	}
+
+	public int size() { return apsp.length; }
+	public int distance(int u, int v) { return apsp[u][v]; }
+	public int nextHop(int u, int v) { return path[u][v]; }
+	public int via(int u, int v) { return via[u][v]; }
+}
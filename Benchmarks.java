@@ -0,0 +1,176 @@
+import java.util.*;
+import java.io.*;
+
+// microbenchmarks for the hot paths: map loading, APSP construction (and blocked vs plain Floyd-Warshall), the approximate Steiner solver and city lookup
+// usage: java Benchmarks [results.json] [-quick]
+// every benchmark is warmed up, then timed for a fixed budget; results go to stdout and, as JSON, to the given file
+// so two runs (say, before and after a commit) can be compared line by line
+public class Benchmarks
+{
+	private static long warmupNanos = 1000000000L;
+	private static long measureNanos = 2000000000L;
+	private static final int MIN_OPS = 3; // even the slowest benchmark gets this many timed runs
+	private static long sink; // results are folded in here so the JIT can't drop the work
+
+	private static final ArrayList<String> results = new ArrayList<>();
+
+	private interface Op
+	{
+		void run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String jsonFile = null;
+		boolean quick = false;
+		for (String arg : args)
+		{
+			if (arg.equals("-quick"))
+			{
+				warmupNanos /= 10;
+				measureNanos /= 10;
+				quick = true;
+			}
+			else
+				jsonFile = arg;
+		}
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+		// loadMap: the two bundled maps plus generated ones
+		ArrayList<String> maps = new ArrayList<>(Arrays.asList("usa.txt", "eu.txt"));
+		for (int n : new int[] { 500, 2000 })
+		{
+			File generated = new File(tmpDir, String.format("t2r-bench-%d.txt", n));
+			MapGenerator.generate(n, 42, generated);
+			generated.deleteOnExit();
+			maps.add(generated.getPath());
+		}
+		for (String map : maps)
+		{
+			int n = GameMap.load(map, true).size();
+			run("loadMap", String.format("\"map\": \"%s\", \"n\": %d", new File(map).getName(), n), () -> sink += GameMap.load(map).size());
+		}
+
+		// buildAPSP: Floyd-Warshall on fresh tables, so nothing is cached between runs
+		for (String map : maps)
+		{
+			int[][] adjMat = GameMap.load(map).getAdjMat();
+			int n = adjMat.length;
+			run("buildAPSP", String.format("\"n\": %d", n), () ->
+			{
+				int[][] apsp = new int[n][n];
+				int[][] path = new int[n][n];
+				int[][] via = new int[n][n];
+				GameMap.floydWarshall(adjMat, apsp, path, via);
+				sink += apsp[0][n - 1];
+			});
+		}
+
+		// floydWarshall: the blocked parallel version against the plain triple loop on bigger maps
+		// (the tables are compared first; the plain loop takes a while at 4000, so -quick stops at 1000)
+		for (int n : quick ? new int[] { 1000 } : new int[] { 1000, 2000, 4000 })
+		{
+			File generated = new File(tmpDir, String.format("t2r-bench-%d.txt", n));
+			MapGenerator.generate(n, 42, generated);
+			generated.deleteOnExit();
+			int[][] adjMat = GameMap.load(generated.getPath()).getAdjMat();
+			int[][] apsp1 = new int[n][n], path1 = new int[n][n], via1 = new int[n][n];
+			int[][] apsp2 = new int[n][n], path2 = new int[n][n], via2 = new int[n][n];
+			GameMap.floydWarshallSimple(adjMat, apsp1, path1, via1);
+			BlockedFloydWarshall.run(adjMat, apsp2, path2, via2);
+			if (!Arrays.deepEquals(apsp1, apsp2) || !Arrays.deepEquals(path1, path2) || !Arrays.deepEquals(via1, via2))
+				throw new Exception("blocked Floyd-Warshall tables differ at n = " + n);
+			run("floydWarshall", String.format("\"n\": %d, \"impl\": \"simple\"", n), () ->
+			{
+				GameMap.floydWarshallSimple(adjMat, apsp1, path1, via1);
+				sink += apsp1[0][n - 1];
+			});
+			run("floydWarshall", String.format("\"n\": %d, \"impl\": \"blocked\"", n), () ->
+			{
+				BlockedFloydWarshall.run(adjMat, apsp2, path2, via2);
+				sink += apsp2[0][n - 1];
+			});
+		}
+
+		// steinerTreeApprox: k ticket cities on the Europe map, chained together with tickets
+		GameMap eu = GameMap.load("eu.txt");
+		for (int k = 2; k <= 20; ++k)
+		{
+			Ticket2Ride model = new Ticket2Ride(eu);
+			ArrayList<Integer> cities = new ArrayList<>();
+			for (int i = 0; i < eu.size(); ++i)
+				cities.add(i);
+			Collections.shuffle(cities, new Random(k));
+			for (int i = 0; i + 1 < k; ++i)
+				model.addTicket(eu.getCities().name(cities.get(i)), eu.getCities().name(cities.get(i + 1)));
+			model.buildAPSP();
+			SessionSnapshot snapshot = model.snapshot();
+			run("steinerTreeApprox", String.format("\"k\": %d", k), () -> sink += snapshot.steinerTreeApprox().first());
+		}
+
+		// checkCities: exact names and every 1-4 letter prefix of them, as typed at the prompt
+		Ticket2Ride usa = new Ticket2Ride(GameMap.load("usa.txt"));
+		CLI.attach(usa, new PrintStream(new OutputStream() { public void write(int b) {} }));
+		ArrayList<String> typed = new ArrayList<>();
+		for (int c = 0; c < usa.getCities().size(); ++c)
+		{
+			String city = usa.getCities().sortedName(c);
+			for (int len = 1; len <= Math.min(4, city.length()); ++len)
+				typed.add(len == 4 ? city : city.substring(0, len));
+		}
+		String[] command = new String[3];
+		run("checkCities", String.format("\"lookups\": %d", typed.size()), () ->
+		{
+			for (int i = 0; i + 1 < typed.size(); i += 2)
+			{
+				command[1] = typed.get(i);
+				command[2] = typed.get(i + 1);
+				if (CLI.checkCities(command))
+					++sink;
+			}
+		});
+
+		if (jsonFile != null)
+		{
+			try (PrintWriter json = new PrintWriter(new FileWriter(jsonFile)))
+			{
+				json.println("{");
+				json.printf("  \"java\": \"%s\",%n", System.getProperty("java.version"));
+				json.printf("  \"cpus\": %d,%n", Runtime.getRuntime().availableProcessors());
+				json.println("  \"results\": [");
+				for (int i = 0; i < results.size(); ++i)
+					json.printf("    %s%s%n", results.get(i), i + 1 < results.size() ? "," : "");
+				json.println("  ]");
+				json.println("}");
+			}
+			System.out.printf("Results written to %s%n", jsonFile);
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	// warm <op> up, then time it until the budget runs out; reports mean and best time per call
+	private static void run(String name, String params, Op op) throws Exception
+	{
+		long end = System.nanoTime() + warmupNanos;
+		do
+			op.run();
+		while (System.nanoTime() < end);
+
+		long ops = 0, best = Long.MAX_VALUE, total = 0;
+		end = System.nanoTime() + measureNanos;
+		while (ops < MIN_OPS || System.nanoTime() < end)
+		{
+			long start = System.nanoTime();
+			op.run();
+			long t = System.nanoTime() - start;
+			best = Math.min(best, t);
+			total += t;
+			++ops;
+		}
+		double mean = (double) total / ops;
+		System.out.printf("%-18s %-34s %12.1f us/op (best %.1f, %d ops)%n", name, params.replace("\"", ""), mean / 1e3, best / 1e3, ops);
+		results.add(String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"params\": {%s}, \"ops\": %d, \"meanNs\": %.1f, \"bestNs\": %d}",
+								  name, params, ops, mean, best));
+	}
+}
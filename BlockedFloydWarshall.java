@@ -0,0 +1,193 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Floyd-Warshall over flat int[] tables, blocked over the pivots and spread over cores, for maps in the thousands
+// produces exactly the apsp, path and via tables of the plain triple loop (GameMap.floydWarshallSimple), ties included:
+// the plain loop's result depends on the value every cell holds at every pivot, so the blocking is arranged to read
+// exactly those values rather than the usual tiled scheme (which reaches the same distances but breaks ties differently)
+//
+// pivots go in blocks of B; for one block:
+// step 1: the block's own B rows are run through the block's pivots one after another, keeping a copy of each pivot
+//         row as it stood when its turn came (pivot k never changes row k or column k, distances being positive)
+// step 2: every other row then takes all B pivots while it is hot in cache, in parallel (rows are independent now);
+//         it first runs the pivots over its own B block columns, noting D[i][k] and path[i][k] as each pivot reaches
+//         them, then sweeps the rest of the row tile by tile with those values and the saved pivot rows
+// so each row is streamed from memory once per block instead of once per pivot, and the inner loop is a plain
+// add/compare/store over two int[] slices the JIT can unroll
+public class BlockedFloydWarshall
+{
+	private static final int BLOCK = 32;        // pivots per block
+	private static final int TILE = 1024;       // columns per sweep in step 2, so the slices stay in L1
+	private static final int ROWS_PER_TASK = 16;
+	private static final int PARALLEL_MIN = 256; // below this the whole table fits in cache and threads only cost
+
+	private final int n;
+	private final int[] dist, path, via; // row-major n * n
+	private final int[] pivotRows;    // step 1 copies, BLOCK * n
+
+	private BlockedFloydWarshall(int n)
+	{
+		this.n = n;
+		this.dist = new int[n * n];
+		this.path = new int[n * n];
+		this.via = new int[n * n];
+		this.pivotRows = new int[BLOCK * n];
+	}
+
+	public static void run(int[][] adjMat, int[][] apsp, int[][] path, int[][] via)
+	{
+		run(adjMat, apsp, path, via, Runtime.getRuntime().availableProcessors());
+	}
+
+	// fills <apsp>, <path> and <via> (n * n, preallocated) from <adjMat>, same conventions as GameMap.floydWarshallSimple
+	public static void run(int[][] adjMat, int[][] apsp, int[][] path, int[][] via, int parallelism)
+	{
+		final int INF = Ticket2Ride.INF;
+		int n = adjMat.length;
+		BlockedFloydWarshall fw = new BlockedFloydWarshall(n);
+		for (int i = 0; i < n; ++i)
+		{
+			int[] row = adjMat[i];
+			int off = i * n;
+			for (int j = 0; j < n; ++j)
+			{
+				fw.dist[off + j] = (row[j] == 0 || row[j] >= INF) ? INF : row[j];
+				fw.path[off + j] = (row[j] == 0 || row[j] > INF) ? -1 : j;
+				fw.via[off + j] = -1;
+			}
+		}
+
+		ForkJoinPool pool = n >= PARALLEL_MIN && parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try
+		{
+			for (int k0 = 0; k0 < n; k0 += BLOCK)
+			{
+				int k1 = Math.min(n, k0 + BLOCK);
+				fw.pivotBlock(k0, k1);
+				if (pool != null)
+				{
+					pool.invoke(fw.new RowTask(k0, k1, 0, n));
+				}
+				else
+				{
+					int[] dk = new int[BLOCK], pk = new int[BLOCK];
+					for (int i = 0; i < n; ++i)
+						if (i < k0 || i >= k1)
+							fw.row(i, k0, k1, dk, pk);
+				}
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		for (int i = 0; i < n; ++i)
+		{
+			System.arraycopy(fw.dist, i * n, apsp[i], 0, n);
+			System.arraycopy(fw.path, i * n, path[i], 0, n);
+			System.arraycopy(fw.via, i * n, via[i], 0, n);
+		}
+	}
+
+	// step 1: pivots k0 .. k1 - 1 over rows k0 .. k1 - 1, saving each pivot row on its turn
+	private void pivotBlock(int k0, int k1)
+	{
+		final int INF = Ticket2Ride.INF;
+		for (int k = k0; k < k1; ++k)
+		{
+			int saved = (k - k0) * n;
+			System.arraycopy(dist, k * n, pivotRows, saved, n);
+			for (int r = k0; r < k1; ++r)
+			{
+				int off = r * n;
+				int drk = dist[off + k];
+				if (r == k || drk >= INF)
+					continue; // nothing goes through k from r
+				relax(off, drk, path[off + k], k, saved, 0, n);
+			}
+		}
+	}
+
+	// step 2 for one row outside the block; <dk>, <pk> are scratch of length BLOCK
+	private void row(int i, int k0, int k1, int[] dk, int[] pk)
+	{
+		final int INF = Ticket2Ride.INF;
+		int off = i * n;
+		int b = k1 - k0;
+
+		// the block's own columns, pivot by pivot, noting what each pivot reads
+		for (int k = k0; k < k1; ++k)
+		{
+			dk[k - k0] = dist[off + k];
+			pk[k - k0] = path[off + k];
+			if (dk[k - k0] < INF)
+				relax(off, dk[k - k0], pk[k - k0], k, (k - k0) * n, k0, k1);
+		}
+
+		// everything else, a tile at a time
+		for (int t0 = 0; t0 < n; t0 += TILE)
+		{
+			int t1 = Math.min(n, t0 + TILE);
+			for (int x = 0; x < b; ++x)
+			{
+				if (dk[x] >= INF)
+					continue;
+				if (t1 <= k0 || t0 >= k1)
+				{
+					relax(off, dk[x], pk[x], k0 + x, x * n, t0, t1);
+				}
+				else
+				{
+					// tile overlaps the block columns, which are done already
+					relax(off, dk[x], pk[x], k0 + x, x * n, t0, k0);
+					relax(off, dk[x], pk[x], k0 + x, x * n, k1, t1);
+				}
+			}
+		}
+	}
+
+	// dist[i][j] = min(dist[i][j], dik + pivot[j]) over j in [from, to), with path[i][j] = pik and via[i][j] = <k>
+	// where it improves; <off> is row i's offset, <saved> the pivot row's offset in pivotRows
+	private void relax(int off, int dik, int pik, int k, int saved, int from, int to)
+	{
+		int[] d = dist, p = path, v = via, pr = pivotRows;
+		for (int j = from; j < to; ++j)
+		{
+			int nd = dik + pr[saved + j];
+			if (nd < d[off + j])
+			{
+				d[off + j] = nd;
+				p[off + j] = pik;
+				v[off + j] = k;
+			}
+		}
+	}
+
+	private class RowTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int k0, k1, from, to;
+
+		RowTask(int k0, int k1, int from, int to)
+		{
+			this.k0 = k0;
+			this.k1 = k1;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from <= ROWS_PER_TASK)
+			{
+				int[] dk = new int[BLOCK], pk = new int[BLOCK];
+				for (int i = from; i < to; ++i)
+					if (i < k0 || i >= k1)
+						row(i, k0, k1, dk, pk);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RowTask(k0, k1, from, mid), new RowTask(k0, k1, mid, to));
+		}
+	}
+}
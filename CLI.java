@@ -5,9 +5,21 @@ public class CLI
 {
 	private static PrintStream out = System.out;
 	private static boolean quitProgram = true;
+	private static Ticket2Ride session;
+	private static SessionLog sessionLog; // null unless started with -log
+	private static boolean commandFailed; // the last command hit a solver failure (see cannotConnect)
 
 	public static void main(String[] args)
 	{
+		for (String arg : args)
+		{
+			if (arg.equals("-batch"))
+			{
+				runBatch(args);
+				return;
+			}
+		}
+
 		Scanner in = new Scanner(System.in);
 		out.println("==============================================");
 		out.println("  Welcome to Ticket to Ride Java companion!");
@@ -47,8 +59,21 @@ public class CLI
 		}
 		try
 		{
-			Ticket2Ride.getInstance().loadMap(map);
+			// "-sparse" skips the n*n tables, for very large custom maps
+			boolean sparse = false;
+			for (String arg : args)
+				if (arg.equals("-sparse"))
+					sparse = true;
+			// prefer a compiled copy of the map (see MapCompiler) when one sits next to it
+			String compiled = map.replaceFirst("\\.txt$", ".t2r");
+			if (new File(compiled).isFile())
+				map = compiled;
+			session = new Ticket2Ride(GameMap.load(map, sparse));
 			out.printf("Map initialized for %s%n", map);
+			// "-log <file>" keeps the game in <file>, picking up where it left off if the file is already there
+			String logFile = logFile(args);
+			if (logFile != null)
+				out.println(openLog(logFile));
 		} catch (IOException ex) {
 			System.err.println("ERROR - " + ex.getMessage());
 			System.exit(1);
@@ -68,24 +93,200 @@ public class CLI
 					break;
 			}
 		}
+		closeLog();
+	}
+
+	private static String logFile(String[] args)
+	{
+		for (int i = 0; i + 1 < args.length; ++i)
+			if (args[i].equals("-log"))
+				return args[i + 1];
+		return null;
+	}
+
+	private static String openLog(String logFile) throws IOException
+	{
+		sessionLog = SessionLog.open(logFile, session);
+		session.publish();
+		if (!sessionLog.recoveredFromSnapshot() && sessionLog.replayedRecords() == 0)
+			return String.format("Logging game to %s", logFile);
+		return String.format("Recovered game from %s: %d ticket%s, %d blocked route%s (%s%d log records, %.1f ms)", logFile,
+							 session.getTicketSet().size(), session.getTicketSet().size() == 1 ? "" : "s",
+							 session.getBlockedRoutes().size(), session.getBlockedRoutes().size() == 1 ? "" : "s",
+							 sessionLog.recoveredFromSnapshot() ? "snapshot + " : "", sessionLog.replayedRecords(), sessionLog.recoveryMillis());
+	}
+
+	private static void closeLog()
+	{
+		if (sessionLog == null)
+			return;
+		try
+		{
+			sessionLog.close();
+		} catch (IOException ex) {
+			System.err.println("ERROR - " + ex.getMessage());
+		}
+		sessionLog = null;
+	}
+
+	// non-interactive mode for replaying scripts and transcripts:
+	//   java CLI -batch <map> [commands|-] [-json] [-sparse] [-log <file>]
+	// reads commands from the file (or stdin if missing or "-"), one line at a time with ';' separating commands like
+	// at the prompt, and stops at end of input or at exit/quit; no banner, no prompts, and output is only flushed at
+	// the end (or when the buffer fills), so a long script isn't dominated by console writes
+	// -json writes one JSON object per command instead of the plain text:
+	//   {"line": 3, "command": "path MST", "error": false, "output": ["Routes to claim:", ...]}
+	// where error is true if the command printed a "!" message or a solver failed (see cannotConnect)
+	// -log works as at the prompt, with the recovery line going to stderr so stdout stays the commands' output
+	private static void runBatch(String[] args)
+	{
+		String map = null, script = null;
+		String logFile = logFile(args);
+		boolean json = false, sparse = false;
+		for (int i = 0; i < args.length; ++i)
+		{
+			String arg = args[i];
+			if (arg.equals("-log"))
+				++i; // its file is logFile
+			else if (arg.equals("-batch"))
+				continue;
+			else if (arg.equals("-json"))
+				json = true;
+			else if (arg.equals("-sparse"))
+				sparse = true;
+			else if (map == null)
+				map = arg;
+			else if (script == null)
+				script = arg;
+		}
+		if (map == null)
+		{
+			System.err.println("usage: java CLI -batch <map> [commands|-] [-json] [-sparse] [-log <file>]");
+			System.exit(1);
+		}
+
+		PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+		try (BufferedReader in = script == null || script.equals("-")
+				? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+				: new BufferedReader(new FileReader(script), 1 << 16))
+		{
+			session = new Ticket2Ride(GameMap.load(map, sparse));
+			if (logFile != null)
+				System.err.println(openLog(logFile));
+
+			// in JSON mode each command's text goes to a scratch buffer first, then out as one line
+			ByteArrayOutputStream captured = new ByteArrayOutputStream();
+			out = json ? new PrintStream(captured, false) : console;
+
+			String line;
+			int lineNo = 0;
+			boolean quit = false;
+			while (!quit && (line = in.readLine()) != null)
+			{
+				++lineNo;
+				for (String part : line.split(";"))
+				{
+					if (part.trim().isEmpty())
+						continue; // blank lines are just spacing in a script
+					String[] cmd = part.trim().split(" +");
+					String text = String.join(" ", cmd);
+					quit = processCommand(cmd);
+					if (json)
+					{
+						out.flush();
+						printJson(console, lineNo, text, captured.toString(), commandFailed);
+						captured.reset();
+					}
+					if (quit)
+						break;
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println("ERROR - " + ex.getMessage());
+			console.flush();
+			System.exit(1);
+		} finally {
+			out = System.out;
+		}
+		closeLog();
+		console.flush();
+	}
+
+	private static void printJson(PrintStream console, int lineNo, String command, String output, boolean failed)
+	{
+		StringBuilder sb = new StringBuilder(64 + output.length());
+		sb.append("{\"line\": ").append(lineNo).append(", \"command\": ");
+		appendJsonString(sb, command);
+		boolean error = failed;
+		StringBuilder lines = new StringBuilder();
+		for (String l : output.split("\\r?\\n"))
+		{
+			if (l.isEmpty())
+				continue;
+			if (l.startsWith("!"))
+				error = true;
+			lines.append(lines.length() == 0 ? "" : ", ");
+			appendJsonString(lines, l);
+		}
+		sb.append(", \"error\": ").append(error).append(", \"output\": [").append(lines).append("]}");
+		console.println(sb);
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s)
+	{
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\t')
+				sb.append("\\t");
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
 	}
 
 	public static boolean processCommand(String[] command)
 	{
+		// make the previous command's changes visible before reading anything
+		session.publish();
+		commandFailed = false;
+
 		if (command[0].equals(""))
 		{
 			out.printf("! Type \"help\" for available commands.%n", command[0]);
 		}
 		else if ("add".startsWith(command[0])) // add ticket
 		{
+			// points printed on the ticket, if given (anything else in 4th place is more likely a city name with a space)
+			int points = -1;
+			boolean hasPoints = command.length == 4 && command[3].matches("-?[0-9]+");
+			if (hasPoints)
+			{
+				try
+				{
+					points = Integer.parseInt(command[3]);
+				} catch (NumberFormatException ex) {
+					points = -1;
+				}
+			}
 			// validate argument count
-			if (command.length != 3)
+			if (command.length != 3 && !hasPoints)
 			{
 				out.println("! Incorrect argument count");
-				out.println("  Usage: add city1 city2");
+				out.println("  Usage: add city1 city2 [points]");
+			}
+			else if (hasPoints && points < 0)
+			{
+				out.println("! Ticket points must be a whole number, 0 or more");
 			}
 			else
 			{
+
 				// check cities
 				if (!checkCities(command))
 					return false;
@@ -94,7 +295,10 @@ public class CLI
 				String cityB = command[2];
 				try
 				{
-					Ticket2Ride.getInstance().addTicket(cityA, cityB);
+					if (points < 0)
+						session.addTicket(cityA, cityB);
+					else
+						session.addTicket(cityA, cityB, points);
 					out.printf("Added ticket %s to %s%n", cityA, cityB);
 				} catch (Exception ex)
 				{
@@ -130,7 +334,7 @@ public class CLI
 				String cityB = command[2];
 				try
 				{
-					Ticket2Ride.getInstance().removeTicket(cityA, cityB);
+					session.removeTicket(cityA, cityB);
 					out.printf("Removed ticket %s to %s%n", cityA, cityB);
 				} catch (Exception ex)
 				{
@@ -140,18 +344,18 @@ public class CLI
 		}
 		else if ("reset".startsWith(command[0])) // reset tickets & blocks
 		{
-			int nTickets = Ticket2Ride.getInstance().getTicketSet().size();
-			int nBlocked = Ticket2Ride.getInstance().getBlockedRoutes().size();
-			Ticket2Ride.getInstance().resetModel();
+			int nTickets = session.getTicketSet().size();
+			int nBlocked = session.getBlockedRoutes().size();
+			session.resetModel();
 			out.printf("All tickets removed (%d)%n", nTickets);
 			out.printf("All routes unblocked (%d)%n", nBlocked);
 		}
 		else if ("tickets".startsWith(command[0])) // print tickets
 		{
-			TreeSet<Ticket> tickets = Ticket2Ride.getInstance().getTicketSet();
+			SortedSet<Ticket> tickets = session.getTicketSet();
 			out.printf("%d ticket%s%s%n", tickets.size(), tickets.size() == 1 ? "" : "s", tickets.size() > 0 ? ":" : "");
 			for (Ticket t : tickets)
-				out.printf("- %s to %s%n", t.aCity(), t.bCity());
+				out.printf("- %s to %s (%d points)%n", t.aCity(), t.bCity(), t.points());
 		}
 		else if ("block".startsWith(command[0])) // block route
 		{
@@ -164,12 +368,12 @@ public class CLI
 			else if (command.length == 1)
 			{
 				// display all blocked routes
-				if (Ticket2Ride.getInstance().getBlockedRoutes().isEmpty())
+				if (session.getBlockedRoutes().isEmpty())
 					out.println("No blocked routes");
 				else
 				{
 					out.println("Blocked routes:");
-					for (Ticket route : Ticket2Ride.getInstance().getBlockedRoutes())
+					for (Ticket route : session.getBlockedRoutes())
 						out.printf("- %s to %s%n", route.aCity(), route.bCity());
 				}
 			}
@@ -183,7 +387,7 @@ public class CLI
 				String cityB = command[2];
 				try
 				{
-					Ticket2Ride.getInstance().blockRoute(true, cityA, cityB);
+					session.blockRoute(true, cityA, cityB);
 					out.printf("Blocked route %s to %s%n", cityA, cityB);
 				} catch (Exception ex)
 				{
@@ -219,7 +423,7 @@ public class CLI
 				String cityB = command[2];
 				try
 				{
-					Ticket2Ride.getInstance().blockRoute(false, cityA, cityB);
+					session.blockRoute(false, cityA, cityB);
 					out.printf("Unblocked route %s to %s%n", cityA, cityB);
 				} catch (Exception ex)
 				{
@@ -230,57 +434,197 @@ public class CLI
 		else if ("path".startsWith(command[0])) // compute path using either MST or TSP
 		{
 			// validate argument count
-			if (command.length != 2)
+			if (command.length != 2 && !(command.length == 3 && "MST".startsWith(command[1].toUpperCase())))
 			{
 				out.println("! Incorrect argument count");
 				out.println("  Usage: path type");
-				out.println("  where type is either MST or TSP");
+				out.println("         path MST k");
+				out.println("  where type is either MST, FAST, SLOW or TSP");
 			}
-			else if (Ticket2Ride.getInstance().getTicketSet().isEmpty())
+			else if (session.getTicketSet().isEmpty())
 			{
 				out.println("! No tickets have been added");
 				out.println("  Add some tickets to compute a path!");
 			}
 			else
 			{
-				Ticket2Ride.getInstance().buildAPSP();
+				// FAST works straight off the map, everything else wants the shortest path tables
+				if (!"FAST".startsWith(command[1].toUpperCase()))
+					session.buildAPSP();
 
-				if ("MST".startsWith(command[1].toUpperCase()))
+				if (command.length == 3)
 				{
+					// the k cheapest structurally different plans, ready for when a route gets taken
+					int k;
 					try
 					{
-						Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = Ticket2Ride.getInstance().steinerTreeApprox();
-						int cost = result.first();
-						ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = result.second();
-						
-						out.printf("Route%s to claim:%n", routes.size() == 1 ? "" : "s");
-						for (OrderedTriple<Integer, Integer, Integer> e : routes)
-							out.printf(" - %s to %s%n", Ticket2Ride.getInstance().getIntToCityMap().get(e.first()),
-														Ticket2Ride.getInstance().getIntToCityMap().get(e.second()));
-
-						if (cost <= 45)
-							out.printf("You will need %d trains to claim these routes.%n", cost);
-						else
-							out.printf("You will need MORE THAN 45 TRAINS (%d) to claim these routes.%n", cost);
+						k = Integer.parseInt(command[2]);
+					} catch (NumberFormatException ex) {
+						k = 0;
+					}
+					if (k < 1 || k > 20)
+					{
+						out.println("! Number of plans must be between 1 and 20");
+						return false;
+					}
+					try
+					{
+						ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> plans = session.topPlans(k);
+						for (int i = 0; i < plans.size(); ++i)
+						{
+							out.printf("Plan %d of %d:%n", i + 1, plans.size());
+							printRoutes(plans.get(i));
+						}
+						if (plans.size() < k)
+							out.printf("Only %d different plan%s found.%n", plans.size(), plans.size() == 1 ? "" : "s");
 					} catch (Exception ex)
 					{
-						out.println("Cannot connect all cities - All routes are blocked to one of the cities.");
+						cannotConnect();
+					}
+				}
+				else if ("MST".startsWith(command[1].toUpperCase()))
+				{
+					try
+					{
+						printRoutes(session.steinerTreeApprox());
+					} catch (Exception ex)
+					{
+						cannotConnect();
+					}
+				}
+				else if ("FAST".startsWith(command[1].toUpperCase()))
+				{
+					// same approximation as MST without any tables, stays quick on huge maps and under constant blocking
+					try
+					{
+						printRoutes(session.steinerTreeMehlhorn());
+					} catch (Exception ex)
+					{
+						cannotConnect();
 					}
 				}
 				else if ("SLOW".startsWith(command[1].toUpperCase()))
 				{
-					out.println("Not supported yet");
+					// exact Steiner tree: fewest possible trains, exponential in the number of ticket cities
+					try
+					{
+						printRoutes(session.steinerTreeExact());
+					} catch (Exception ex)
+					{
+						String errmsg = ex.getMessage();
+						if (errmsg.startsWith("2"))
+							out.printf("! Too many ticket cities for an exact path (max %d).%n", SteinerExact.MAX_TERMINALS);
+						else
+							cannotConnect();
+					}
 				}
 				else if ("TSP".startsWith(command[1].toUpperCase()))
 				{
-					out.println("Not supported yet");
 					// (modified) traveling salesman: shortest path to connect all cities in one continuous route
 					// (don't need to connect beginning to end like traditional TSP)
+					try
+					{
+						printRoutes(session.modifiedTSP());
+					} catch (Exception ex)
+					{
+						cannotConnect();
+					}
 				}
 				else
 				{
 					out.printf("! Path \"%s\" unrecognized.%n" +
-							   "  Valid types are \"MST\" and \"TSP\".%n", command[1]);
+							   "  Valid types are \"MST\", \"FAST\", \"SLOW\" and \"TSP\".%n", command[1]);
+				}
+			}
+		}
+		else if ("analyze".startsWith(command[0])) // rank the planned routes by what losing them would cost
+		{
+			if (session.getTicketSet().isEmpty())
+			{
+				out.println("! No tickets have been added");
+				out.println("  Add some tickets to analyze a path!");
+			}
+			else
+			{
+				try
+				{
+					Pair<Integer, ArrayList<RouteAnalyzer.RouteRisk>> analysis = session.analyzeRoutes();
+					out.printf("Current path needs %d trains. If an opponent claims...%n", analysis.first());
+					CityIndex names = session.getCities();
+					// every route of the current path has an entry
+					TreeSet<Long> planned = new TreeSet<>();
+					for (RouteAnalyzer.RouteRisk risk : analysis.second())
+						planned.add(((long) risk.a << 32) | risk.b);
+					for (RouteAnalyzer.RouteRisk risk : analysis.second())
+					{
+						out.printf(" - %s to %s (%d): ", names.name(risk.a), names.name(risk.b), risk.weight);
+						if (risk.cutsOff())
+						{
+							out.println("CANNOT CONNECT ALL CITIES");
+							continue;
+						}
+						out.printf("%+d trains (%d)", risk.delta, risk.newCost);
+						// the routes the new path takes instead
+						TreeSet<String> detour = new TreeSet<>();
+						for (OrderedTriple<Integer, Integer, Integer> e : risk.newPlan.second())
+						{
+							int a = Math.min(e.first(), e.second()), b = Math.max(e.first(), e.second());
+							if (!planned.contains(((long) a << 32) | b))
+								detour.add(names.name(a) + "-" + names.name(b));
+						}
+						if (!detour.isEmpty())
+							out.printf(", reroute via %s", String.join(", ", detour));
+						out.println();
+					}
+				} catch (Exception ex)
+				{
+					cannotConnect();
+				}
+			}
+		}
+		else if ("optimize".startsWith(command[0])) // which tickets to give up when they don't all fit
+		{
+			int trains = 45;
+			if (command.length == 2)
+			{
+				try
+				{
+					trains = Integer.parseInt(command[1]);
+				} catch (NumberFormatException ex) {
+					trains = -1;
+				}
+			}
+			if (command.length > 2 || trains < 0)
+			{
+				out.println("! Incorrect arguments");
+				out.println("  Usage: optimize [trains left]");
+			}
+			else if (session.getTicketSet().isEmpty())
+			{
+				out.println("! No tickets have been added");
+				out.println("  Add some tickets to optimize!");
+			}
+			else
+			{
+				try
+				{
+					TicketOptimizer.Selection best = session.optimizeTickets(trains);
+					out.printf("Keep %d of %d tickets (score %+d):%n", best.kept.size(), best.kept.size() + best.dropped.size(), best.score);
+					for (Ticket t : best.kept)
+						out.printf(" - keep %s to %s (+%d)%n", t.aCity(), t.bCity(), t.points());
+					for (Ticket t : best.dropped)
+						out.printf(" - drop %s to %s (-%d)%n", t.aCity(), t.bCity(), t.points());
+					if (!best.complete)
+						out.println("* Search stopped at its time limit, a better choice may exist.");
+					if (!best.kept.isEmpty())
+						printRoutes(best.plan);
+				} catch (Exception ex)
+				{
+					String errmsg = ex.getMessage();
+					if (errmsg != null && errmsg.startsWith("2"))
+						out.printf("! Too many tickets to optimize (max %d).%n", TicketOptimizer.MAX_TICKETS);
+					else
+						cannotConnect();
 				}
 			}
 		}
@@ -288,22 +632,55 @@ public class CLI
 		{
 			printDebug();
 		}
+		else if ("stats".startsWith(command[0])) // latency and counter metrics
+		{
+			if (command.length == 2 && "json".equals(command[1].toLowerCase()))
+			{
+				PathCache cache = session.getPathCache();
+				out.printf("{\"metrics\": %s, \"pathCache\": {\"hits\": %d, \"misses\": %d, \"evictions\": %d, \"entries\": %d}}%n",
+						   Metrics.toJson(), cache.hits(), cache.misses(), cache.evictions(), cache.size());
+			}
+			else if (command.length == 2 && "reset".equals(command[1].toLowerCase()))
+			{
+				Metrics.reset();
+				out.println("Stats reset");
+			}
+			else if (command.length != 1)
+			{
+				out.println("! Incorrect argument count");
+				out.println("  Usage: stats [json|reset]");
+			}
+			else
+			{
+				Metrics.report(out);
+				PathCache cache = session.getPathCache();
+				out.printf("path cache: %d hits, %d misses, %d evictions, %d entries%n", cache.hits(), cache.misses(), cache.evictions(), cache.size());
+			}
+		}
 		else if ("help".startsWith(command[0])) // display help and usage
 		{
 			out.println("Ticket to Ride companion program");
 			out.println("Type one of the following commands to get started:");
-			out.println("  - add <city1> <city2> -- adds a new ticket from city1 to city2 to the tickets list");
+			out.println("  - add <city1> <city2> [points] -- adds a new ticket from city1 to city2 to the tickets list");
+			out.println("                 (without points, the ticket is worth the shortest route between the cities)");
 			out.println("  - rem <city1> <city2> -- removes the ticket from city1 to city2, if it exists");
 			out.println("  - reset -- removes all tickets and unblocks all routes");
 			out.println("  - tickets -- displays a list of all added tickets");
 			out.println("  - block <city1> <city2> -- blocks the route from city1 to city2, preventing it from being used when a path is computed");
 			out.println("  - unblock <city1> <city2> -- unblocks a blocked route from city1 to city2, allowing it to be used when a path is computed");
-			out.println("  - path <type> -- computes a path to fulfill all tickets. type must be either MST or TSP.");
+			out.println("  - path <type> -- computes a path to fulfill all tickets. type must be either MST, FAST, SLOW or TSP.");
 			out.println("                 MST computes the routes to claim in order to fulfill all tickets with the least number of trains,");
 			out.println("                   but not necessarily maintaining a continuous train route");
+			out.println("                 FAST is like MST (also at most twice the fewest trains) but needs no shortest path tables,");
+			out.println("                   so it answers at once on big maps and right after a block; it never uses a blocked route");
+			out.println("                 SLOW is like MST but guarantees the fewest possible trains (slow with many tickets)");
 			out.println("                 TSP computes the routes to claim in order to fulfill all tickets while maintaining a continuous");
 			out.println("                   train route (will use more trains)");
+			out.println("  - path MST <k> -- lists the k cheapest alternative paths, each using different routes");
+			out.println("  - analyze -- shows how many more trains the path needs if each of its routes is claimed by someone else");
+			out.println("  - optimize [trains] -- which tickets to keep and which to give up with this many trains left (default 45)");
 			out.println("  - debug -- print debug info");
+			out.println("  - stats [json|reset] -- timings and counters for the heavy operations (json: one machine-readable line)");
 			out.println("  - exit/quit -- exit the program");
 			out.println("  - help -- displays this help message");
 		}
@@ -320,26 +697,87 @@ public class CLI
 		return false;
 	}
 
+	public static void printRoutes(Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result)
+	{
+		int cost = result.first();
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = result.second();
+
+		out.printf("Route%s to claim:%n", routes.size() == 1 ? "" : "s");
+		for (OrderedTriple<Integer, Integer, Integer> e : routes)
+			out.printf(" - %s to %s%n", session.getCities().name(e.first()),
+										session.getCities().name(e.second()));
+
+		if (cost <= 45)
+			out.printf("You will need %d trains to claim these routes.%n", cost);
+		else
+			out.printf("You will need MORE THAN 45 TRAINS (%d) to claim these routes.%n", cost);
+	}
+
+	// a path solver couldn't connect the ticket cities
+	private static void cannotConnect()
+	{
+		out.println("Cannot connect all cities - All routes are blocked to one of the cities.");
+		commandFailed = true;
+	}
+
+	// point the command handlers at <session> and <out> without going through main (see Benchmarks)
+	static void attach(Ticket2Ride session, PrintStream out)
+	{
+		CLI.session = session;
+		CLI.out = out;
+	}
+
 	public static boolean checkCities(String[] command)
+	{
+		Metrics.Sample sample = Metrics.start("checkCities");
+		try
+		{
+			return resolveCities(command);
+		} finally {
+			sample.stop();
+		}
+	}
+
+	private static boolean resolveCities(String[] command)
 	{
 		// check if both cities exist
 		for (int i = 1; i <= 2; ++i)
 		{
 			// convert city case to lowercase
 			command[i] = command[i].toLowerCase();
-			TreeMap<String, Integer> cityToInt = Ticket2Ride.getInstance().getCityToIntMap();
-			if (!cityToInt.containsKey(command[i]) && (cityToInt.ceilingKey(command[i]) == null || !cityToInt.ceilingKey(command[i]).startsWith(command[i])))
+			String completed = session.getCities().complete(command[i]);
+			if (completed == null)
 			{
-				// can't find exact key or key prefix
-				out.printf("! The city \"%s\" does not exist and is not a prefix of an existing city.%n", command[i]);
-				return false;
+				// can't find exact key or key prefix, look for a close spelling
+				ArrayList<CityMatcher.Match> matches = session.getCityMatcher().candidates(command[i]);
+				if (matches.isEmpty())
+				{
+					out.printf("! The city \"%s\" does not exist and is not a prefix of an existing city.%n", command[i]);
+					return false;
+				}
+				if (matches.size() > 1 && matches.get(1).distance == matches.get(0).distance)
+				{
+					// several equally close, don't guess
+					StringBuilder names = new StringBuilder();
+					for (CityMatcher.Match m : matches)
+						if (m.distance == matches.get(0).distance)
+							names.append(names.length() == 0 ? "" : ", ").append(m.name);
+					out.printf("! The city \"%s\" does not exist. Did you mean one of: %s?%n", command[i], names);
+					return false;
+				}
+				out.printf("* City \"%s\" corrected to \"%s\"%n", command[i], matches.get(0).name);
+				command[i] = matches.get(0).name;
 			}
-			else if (!cityToInt.containsKey(command[i]))
+			else if (!completed.equals(command[i]))
 			{
 				// no exact key, but found key prefix
+				int others = session.getCities().countPrefix(command[i]) - 1;
 				out.printf("* City \"%s\" auto-completed to ", command[i]);
-				command[i] = cityToInt.ceilingKey(command[i]);
-				out.printf("\"%s\"%n", command[i]);
+				command[i] = completed;
+				if (others == 0)
+					out.printf("\"%s\"%n", command[i]);
+				else
+					out.printf("\"%s\" (%d other %s with that prefix)%n", command[i], others, others == 1 ? "city starts" : "cities start");
 			}
 			// else if city matches exact key, don't need to modify
 		}
@@ -389,47 +827,48 @@ public class CLI
 
 	public static void printDebug()
 	{
-		// build apsp before we can print it
-		Ticket2Ride.getInstance().buildAPSP();
-
-		Iterator<Map.Entry<Integer, String>> it1 = Ticket2Ride.getInstance().getIntToCityMap().entrySet().iterator();
-		Iterator<Map.Entry<String, Integer>> it2 = Ticket2Ride.getInstance().getCityToIntMap().entrySet().iterator();
-		for (; it1.hasNext();)
+		if (session.isSparseMode())
 		{
-			Map.Entry<Integer, String> e1 = it1.next();
-			Map.Entry<String, Integer> e2 = it2.next();
-			out.printf("%2d - %-13s              %-13s - %2d%n", e1.getKey(), e1.getValue(), e2.getKey(), e2.getValue());
+			out.println("! No APSP table in sparse mode");
+			return;
 		}
+
+		// build apsp before we can print it
+		session.buildAPSP();
+
+		CityIndex cities = session.getCities();
+		for (int i = 0; i < cities.size(); ++i)
+			out.printf("%2d - %-13s              %-13s - %2d%n", i, cities.name(i), cities.sortedName(i), cities.sortedId(i));
 		out.printf("%n   ");
-		int[][] apsp = Ticket2Ride.getInstance().getApsp();
-		for (int i = 0; i < apsp.length; ++i)
+		SessionSnapshot model = session.snapshot();
+		int n = cities.size();
+		for (int i = 0; i < n; ++i)
 			out.printf(" %2d", i);
 		out.printf("%n   ");
-		for (int i = 0; i < apsp.length; ++i)
+		for (int i = 0; i < n; ++i)
 			out.print("___");
 		out.println();
-		for (int i = 0; i < apsp.length; ++i)
+		for (int i = 0; i < n; ++i)
 		{
 			out.printf("%2d|", i);
-			for (int j = 0; j < apsp.length; ++j)
-				out.printf(" %2d", apsp[i][j]);
+			for (int j = 0; j < n; ++j)
+				out.printf(" %2d", model.distance(i, j));
 			out.println();
 		}
 
-		int[][] path = Ticket2Ride.getInstance().getPath();
 		out.println("\n------ Path ------");
 		out.printf("%n   ");
-		for (int i = 0; i < path.length; ++i)
+		for (int i = 0; i < n; ++i)
 			out.printf(" %2d", i);
 		out.printf("%n   ");
-		for (int i = 0; i < path.length; ++i)
+		for (int i = 0; i < n; ++i)
 			out.print("___");
 		out.println();
-		for (int i = 0; i < path.length; ++i)
+		for (int i = 0; i < n; ++i)
 		{
 			out.printf("%2d|", i);
-			for (int j = 0; j < path.length; ++j)
-				out.printf(" %2d", path[i][j]);
+			for (int j = 0; j < n; ++j)
+				out.printf(" %2d", model.nextHop(i, j));
 			out.println();
 		}
 	}
@@ -0,0 +1,152 @@
+import java.util.*;
+
+// city names <-> ids for one map
+// ids are dense (0 .. n-1), so id -> name is a plain array; name -> id and prefix completion walk a trie over the
+// names, O(length) whatever the city count, with no boxing and no per-node objects
+// the trie is flat arrays, laid out breadth-first from the sorted names: a node's children are consecutive node ids
+// in label order (found by binary search over at most the alphabet), and every node knows the run of sorted names
+// below it, which answers completion and prefix counts without walking further down
+// immutable once built
+public class CityIndex
+{
+	private final String[] names;   // by id, interned
+	private final String[] sorted;  // the same names in ascending order
+	private final int[] sortedIds;  // id of sorted[i]
+
+	// trie, node 0 is the root (the empty prefix)
+	private final char[] label;     // node -> the character leading to it
+	private final int[] firstChild; // node -> its first child, children run to firstChild + childCount
+	private final int[] childCount;
+	private final int[] from;       // node -> first sorted name with this prefix
+	private final int[] count;      // node -> number of names with this prefix
+	private final int[] city;       // node -> id of the name ending here, -1 if none
+
+	// <names> in id order; they must be distinct
+	public CityIndex(String[] names)
+	{
+		int n = names.length;
+		this.names = new String[n];
+		for (int i = 0; i < n; ++i)
+			this.names[i] = names[i].intern();
+
+		// sort the ids by name, then lay the names out in that order
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; ++i)
+			order[i] = i;
+		Arrays.sort(order, (x, y) -> this.names[x].compareTo(this.names[y]));
+		sorted = new String[n];
+		sortedIds = new int[n];
+		long chars = 0;
+		for (int i = 0; i < n; ++i)
+		{
+			sortedIds[i] = order[i];
+			sorted[i] = this.names[order[i]];
+			chars += sorted[i].length();
+			if (i > 0 && sorted[i].equals(sorted[i - 1]))
+				throw new IllegalArgumentException(String.format("City listed twice (%s)", sorted[i]));
+		}
+
+		// build the trie breadth-first: nodes are processed in id order, and each one appends its children, so the
+		// children of a node end up next to each other; a node covers sorted names from[v] .. from[v] + count[v] - 1,
+		// all sharing its prefix, and a name equal to the prefix comes first in that run
+		int maxNodes = (int) Math.min(Integer.MAX_VALUE - 8, chars + 1);
+		char[] label = new char[maxNodes];
+		int[] firstChild = new int[maxNodes];
+		int[] childCount = new int[maxNodes];
+		int[] from = new int[maxNodes];
+		int[] count = new int[maxNodes];
+		int[] city = new int[maxNodes];
+		int[] depth = new int[maxNodes];
+		count[0] = n;
+		int nodes = 1;
+		for (int v = 0; v < nodes; ++v)
+		{
+			int lo = from[v], hi = lo + count[v], d = depth[v];
+			city[v] = -1;
+			if (lo < hi && sorted[lo].length() == d)
+				city[v] = sortedIds[lo++];
+			firstChild[v] = nodes;
+			for (int i = lo; i < hi; )
+			{
+				char c = sorted[i].charAt(d);
+				int j = i + 1;
+				while (j < hi && sorted[j].charAt(d) == c)
+					++j;
+				label[nodes] = c;
+				from[nodes] = i;
+				count[nodes] = j - i;
+				depth[nodes] = d + 1;
+				++nodes;
+				i = j;
+			}
+			childCount[v] = nodes - firstChild[v];
+		}
+		this.label = Arrays.copyOf(label, nodes);
+		this.firstChild = Arrays.copyOf(firstChild, nodes);
+		this.childCount = Arrays.copyOf(childCount, nodes);
+		this.from = Arrays.copyOf(from, nodes);
+		this.count = Arrays.copyOf(count, nodes);
+		this.city = Arrays.copyOf(city, nodes);
+	}
+
+	public int size() { return names.length; }
+	public String name(int id) { return names[id]; }
+
+	// ith name in alphabetical order, and its id
+	public String sortedName(int i) { return sorted[i]; }
+	public int sortedId(int i) { return sortedIds[i]; }
+
+	// id of <name>, or -1 if there is no such city
+	public int id(String name)
+	{
+		int v = node(name);
+		return v < 0 ? -1 : city[v];
+	}
+
+	public boolean contains(String name)
+	{
+		return id(name) >= 0;
+	}
+
+	// <prefix> itself if it is a city, otherwise the alphabetically first city starting with it (null if none)
+	public String complete(String prefix)
+	{
+		int v = node(prefix);
+		return v < 0 || count[v] == 0 ? null : sorted[from[v]];
+	}
+
+	// number of cities whose name starts with <prefix>
+	public int countPrefix(String prefix)
+	{
+		int v = node(prefix);
+		return v < 0 ? 0 : count[v];
+	}
+
+	// trie node for <prefix>, -1 if no name starts with it
+	private int node(String prefix)
+	{
+		int v = 0;
+		for (int i = 0; i < prefix.length(); ++i)
+		{
+			char c = prefix.charAt(i);
+			int lo = firstChild[v], hi = lo + childCount[v] - 1;
+			v = -1;
+			while (lo <= hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (label[mid] < c)
+					lo = mid + 1;
+				else if (label[mid] > c)
+					hi = mid - 1;
+				else
+				{
+					v = mid;
+					break;
+				}
+			}
+			if (v < 0)
+				return -1;
+		}
+		return v;
+	}
+}
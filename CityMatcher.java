@@ -0,0 +1,134 @@
+import java.util.*;
+
+// typo-tolerant city lookup ("pittsbrg" -> "pittsburgh"), built once per map
+// a BK-tree over the city names under Levenshtein distance: each child hangs off its parent by its distance to it,
+// so a query within <bound> of the parent at distance d only has to visit children at d - bound .. d + bound
+// (triangle inequality); with small bounds that leaves a few dozen distance computations even for thousands of cities
+// nodes are flat int arrays (first child / next sibling), one node per city, node i holding city id i
+// immutable once built, so any number of threads can query it
+public class CityMatcher
+{
+	public static class Match implements Comparable<Match>
+	{
+		public final int id;
+		public final String name;
+		public final int distance;
+
+		Match(int id, String name, int distance)
+		{
+			this.id = id;
+			this.name = name;
+			this.distance = distance;
+		}
+
+		// closest first, then alphabetically
+		public int compareTo(Match other)
+		{
+			if (distance != other.distance)
+				return Integer.compare(distance, other.distance);
+			return name.compareTo(other.name);
+		}
+	}
+
+	private final CityIndex cities;
+	private final int[] firstChild;  // node -> its first child, -1 if none
+	private final int[] nextSibling; // node -> next child of the same parent, -1 if none
+	private final int[] edge;        // node -> its distance to its parent
+
+	public CityMatcher(CityIndex cities)
+	{
+		this.cities = cities;
+		int n = cities.size();
+		firstChild = new int[n];
+		nextSibling = new int[n];
+		edge = new int[n];
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+
+		// city 0 is the root; insert the rest one by one
+		int[][] rows = new int[2][];
+		for (int id = 1; id < n; ++id)
+		{
+			String name = cities.name(id);
+			int node = 0;
+			while (true)
+			{
+				int d = distance(name, cities.name(node), rows);
+				int child = firstChild[node];
+				while (child != -1 && edge[child] != d)
+					child = nextSibling[child];
+				if (child == -1)
+				{
+					edge[id] = d;
+					nextSibling[id] = firstChild[node];
+					firstChild[node] = id;
+					break;
+				}
+				node = child;
+			}
+		}
+	}
+
+	// how far off a query of this length may be and still count as a typo: 1 edit up to 4 chars, then 1 per 4 chars
+	public static int defaultBound(String query)
+	{
+		return Math.max(1, query.length() / 4);
+	}
+
+	public ArrayList<Match> candidates(String query)
+	{
+		return candidates(query, defaultBound(query));
+	}
+
+	// every city within <bound> edits of <query>, closest first
+	public ArrayList<Match> candidates(String query, int bound)
+	{
+		ArrayList<Match> matches = new ArrayList<>();
+		if (cities.size() == 0)
+			return matches;
+		int[][] rows = new int[2][];
+		int[] stack = new int[cities.size()];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			int d = distance(query, cities.name(node), rows);
+			if (d <= bound)
+				matches.add(new Match(node, cities.name(node), d));
+			for (int child = firstChild[node]; child != -1; child = nextSibling[child])
+				if (edge[child] >= d - bound && edge[child] <= d + bound)
+					stack[top++] = child;
+		}
+		Collections.sort(matches);
+		return matches;
+	}
+
+	// Levenshtein distance, two rolling rows kept in <rows> between calls
+	static int distance(String a, String b, int[][] rows)
+	{
+		int m = b.length();
+		if (rows[0] == null || rows[0].length <= m)
+		{
+			rows[0] = new int[m + 1];
+			rows[1] = new int[m + 1];
+		}
+		int[] prev = rows[0], cur = rows[1];
+		for (int j = 0; j <= m; ++j)
+			prev[j] = j;
+		for (int i = 1; i <= a.length(); ++i)
+		{
+			cur[0] = i;
+			char c = a.charAt(i - 1);
+			for (int j = 1; j <= m; ++j)
+			{
+				int sub = prev[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+				cur[j] = Math.min(sub, Math.min(prev[j], cur[j - 1]) + 1);
+			}
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return prev[m];
+	}
+}
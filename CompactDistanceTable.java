@@ -0,0 +1,103 @@
+// the map's own (unblocked) tables packed as tight as they go, for keeping many maps resident
+// distances: the routes are undirected, so only the upper triangle (diagonal included) is kept, in the narrowest of
+//   byte / char / int that holds the longest finite distance, the type's top value standing in for INF (unconnected)
+// next hops: not symmetric, so all n*n, as char (hop + 1, 0 for none)
+// Floyd-Warshall pivots (via): symmetric like the distances, so the upper triangle again, as char (via + 1)
+// the n*n index has to fit an int (see fits), which also keeps n well inside char range
+class CompactDistanceTable implements DistanceTable
+{
+	private final int n;
+	private final byte[] dist8;   // exactly one of dist8 / dist16 / dist32 is set
+	private final char[] dist16;
+	private final int[] dist32;
+	private final char[] hops;
+	private final char[] vias;
+
+	CompactDistanceTable(int[][] apsp, int[][] path, int[][] via)
+	{
+		final int INF = Ticket2Ride.INF;
+		n = apsp.length;
+
+		// step 1: pick the distance width from the longest finite distance
+		int longest = 0;
+		for (int i = 0; i < n; ++i)
+			for (int j = i; j < n; ++j)
+				if (apsp[i][j] < INF)
+					longest = Math.max(longest, apsp[i][j]);
+		int cells = n * (n + 1) / 2;
+		dist8 = longest < 0xFF ? new byte[cells] : null;
+		dist16 = dist8 == null && longest < 0xFFFF ? new char[cells] : null;
+		dist32 = dist8 == null && dist16 == null ? new int[cells] : null;
+
+		// step 2: fill the upper triangles
+		vias = new char[cells];
+		int k = 0;
+		for (int i = 0; i < n; ++i)
+		{
+			for (int j = i; j < n; ++j, ++k)
+			{
+				vias[k] = (char) (via[i][j] + 1);
+				int d = apsp[i][j];
+				if (dist8 != null)
+					dist8[k] = (byte) (d >= INF ? 0xFF : d);
+				else if (dist16 != null)
+					dist16[k] = (char) (d >= INF ? 0xFFFF : d);
+				else
+					dist32[k] = d;
+			}
+		}
+
+		// step 3: every next hop
+		hops = new char[n * n];
+		for (int i = 0; i < n; ++i)
+			for (int j = 0; j < n; ++j)
+				hops[i * n + j] = (char) (path[i][j] + 1);
+	}
+
+	// whether <n> cities fit the flat n*n layout
+	static boolean fits(int n)
+	{
+		return (long) n * n <= Integer.MAX_VALUE;
+	}
+
+	public int size() { return n; }
+
+	public int distance(int u, int v)
+	{
+		int k = cell(u, v);
+		if (dist8 != null)
+		{
+			int d = dist8[k] & 0xFF;
+			return d == 0xFF ? Ticket2Ride.INF : d;
+		}
+		if (dist16 != null)
+		{
+			int d = dist16[k];
+			return d == 0xFFFF ? Ticket2Ride.INF : d;
+		}
+		return dist32[k];
+	}
+
+	public int nextHop(int u, int v)
+	{
+		return hops[u * n + v] - 1;
+	}
+
+	public int via(int u, int v)
+	{
+		return vias[cell(u, v)] - 1;
+	}
+
+	// index of u-v in the upper triangle
+	private int cell(int u, int v)
+	{
+		if (u > v)
+		{
+			int tmp = u;
+			u = v;
+			v = tmp;
+		}
+		// row u of the triangle starts after rows 0 .. u-1, of n, n-1, ... entries
+		return u * n - u * (u - 1) / 2 + (v - u);
+	}
+}
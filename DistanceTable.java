@@ -0,0 +1,9 @@
+// read-only all-pairs shortest path lookups: distance and next hop, in the same conventions as the apsp/path tables
+public interface DistanceTable
+{
+	int size();
+	int distance(int u, int v);
+	int nextHop(int u, int v);
+	// last pivot Floyd-Warshall improved u-v through, -1 if none (see GameMap.floydWarshall)
+	int via(int u, int v);
+}
@@ -0,0 +1,246 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+// one loaded map (cities, routes and the unblocked shortest path tables), shared read-only by any number of game sessions
+public class GameMap
+{
+	private final CityIndex cities;
+	private final CityMatcher matcher;
+	private final int[][] adjMat; // null in sparse mode
+	private final SparseGraph graph;
+	private final boolean sparse;
+	// base APSP, built on first use and never written again: kept packed (CompactDistanceTable) and never unpacked,
+	// sessions lay the rows their blocked routes change on top of it (SessionDistanceTable)
+	private volatile DistanceTable baseTable;
+	// compiled maps only: precomputed tables served straight from the mapped file (null otherwise)
+	private final DistanceTable mappedTable;
+
+	// compiled map file layout (big-endian), see MapCompiler:
+	//   int magic, int version, int nCities, int nEdges, int hasTables
+	//   nCities x (short length, UTF-8 name) in city index order
+	//   int[nCities + 1] offsets, int[2 * nEdges] targets, int[2 * nEdges] weights (CSR)
+	//   if hasTables: int[nCities * nCities] apsp, then path, then via (Floyd-Warshall pivots), row-major
+	static final int MAGIC = 0x54325231; // "T2R1"
+	static final int FORMAT_VERSION = 2;
+
+	private GameMap(CityIndex cities, int[][] adjMat, SparseGraph graph, boolean sparse, DistanceTable mappedTable)
+	{
+		this.cities = cities;
+		this.matcher = new CityMatcher(cities);
+		this.adjMat = adjMat;
+		this.graph = graph;
+		this.sparse = sparse;
+		this.mappedTable = mappedTable;
+	}
+
+	public static GameMap load(String filename) throws IOException
+	{
+		return load(filename, false);
+	}
+
+	// sparse maps skip every n*n table and only ever grow shortest path trees from ticket cities
+	// files ending in .t2r are compiled maps (see MapCompiler), anything else is the text edge list
+	public static GameMap load(String filename, boolean sparse) throws IOException
+	{
+		Metrics.Sample sample = Metrics.start("loadMap");
+		try
+		{
+			return filename.endsWith(".t2r") ? loadCompiled(filename, sparse) : loadText(filename, sparse);
+		} finally {
+			sample.stop();
+		}
+	}
+
+	private static GameMap loadText(String filename, boolean sparse) throws IOException
+	{
+		// ids in order of first appearance; the hash map is only needed while reading
+		HashMap<String, Integer> cityToInt = new HashMap<>();
+		ArrayList<String> intToCity = new ArrayList<>();
+		int[][] adjMat = null;
+		try (BufferedReader mapFile = new BufferedReader(new FileReader(filename)))
+		{
+			// read cities edge list and build adjacency matrix (dense mode) and CSR graph
+			int nCities = Integer.parseInt(mapFile.readLine());
+			if (!sparse)
+				adjMat = new int[nCities][nCities];
+			int nEdges = 0;
+			int[] edgeA = new int[4 * nCities + 4], edgeB = new int[4 * nCities + 4], edgeW = new int[4 * nCities + 4];
+			while (mapFile.ready())
+			{
+				String[] line = mapFile.readLine().split(" ");
+				String cityA = line[0].toLowerCase();
+				String cityB = line[1].toLowerCase();
+				int w = Integer.parseInt(line[2]);
+				if (!cityToInt.containsKey(cityA))
+				{
+					cityToInt.put(cityA, cityToInt.size());
+					intToCity.add(cityA);
+				}
+				if (!cityToInt.containsKey(cityB))
+				{
+					cityToInt.put(cityB, cityToInt.size());
+					intToCity.add(cityB);
+				}
+				int a = cityToInt.get(cityA), b = cityToInt.get(cityB);
+				if (!sparse)
+				{
+					adjMat[a][b] = w;
+					adjMat[b][a] = w; // undirected graph
+				}
+				if (nEdges == edgeA.length)
+				{
+					edgeA = Arrays.copyOf(edgeA, 2 * nEdges);
+					edgeB = Arrays.copyOf(edgeB, 2 * nEdges);
+					edgeW = Arrays.copyOf(edgeW, 2 * nEdges);
+				}
+				edgeA[nEdges] = a;
+				edgeB[nEdges] = b;
+				edgeW[nEdges++] = w;
+			}
+			SparseGraph graph = new SparseGraph(nCities, edgeA, edgeB, edgeW, nEdges);
+			return new GameMap(new CityIndex(intToCity.toArray(new String[0])), adjMat, graph, sparse, null);
+		} catch (IOException ex) {
+			throw new IOException(ex.getMessage());
+		}
+	}
+
+	public static GameMap loadCompiled(String filename, boolean sparse) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+		{
+			// header, names and CSR arrays are read once; the big tables stay in the mapping
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION)
+				throw new IOException(String.format("%s is not a compiled map file", filename));
+			int nCities = buf.getInt();
+			int nEdges = buf.getInt();
+			boolean hasTables = buf.getInt() != 0;
+
+			String[] names = new String[nCities];
+			byte[] nameBytes = new byte[Short.MAX_VALUE];
+			for (int i = 0; i < nCities; ++i)
+			{
+				int len = buf.getShort();
+				buf.get(nameBytes, 0, len);
+				names[i] = new String(nameBytes, 0, len, StandardCharsets.UTF_8);
+			}
+
+			int[] offsets = new int[nCities + 1];
+			int[] targets = new int[2 * nEdges];
+			int[] weights = new int[2 * nEdges];
+			IntBuffer ints = buf.asIntBuffer();
+			ints.get(offsets);
+			ints.get(targets);
+			ints.get(weights);
+			SparseGraph graph = new SparseGraph(offsets, targets, weights);
+			long tablesStart = buf.position() + 4L * ints.position();
+
+			int[][] adjMat = null;
+			if (!sparse)
+			{
+				adjMat = new int[nCities][nCities];
+				for (int u = 0; u < nCities; ++u)
+					for (int i = 0; i < graph.degree(u); ++i)
+						adjMat[u][graph.neighbour(u, i)] = graph.neighbourWeight(u, i);
+			}
+
+			DistanceTable mappedTable = null;
+			if (hasTables && !sparse)
+			{
+				// each table gets its own mapping, so each may be up to 2 GB
+				long tableBytes = 4L * nCities * nCities;
+				IntBuffer apspBuf = channel.map(FileChannel.MapMode.READ_ONLY, tablesStart, tableBytes).asIntBuffer();
+				IntBuffer pathBuf = channel.map(FileChannel.MapMode.READ_ONLY, tablesStart + tableBytes, tableBytes).asIntBuffer();
+				IntBuffer viaBuf = channel.map(FileChannel.MapMode.READ_ONLY, tablesStart + 2 * tableBytes, tableBytes).asIntBuffer();
+				mappedTable = new MappedDistanceTable(nCities, apspBuf, pathBuf, viaBuf);
+			}
+			return new GameMap(new CityIndex(names), adjMat, graph, sparse, mappedTable);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+			throw new IOException(String.format("%s is truncated", filename));
+		}
+	}
+
+	// getter methods (callers must not modify what they get back)
+	public CityIndex getCities() { return cities; }
+	public CityMatcher getCityMatcher() { return matcher; }
+	public int[][] getAdjMat() { return adjMat; }
+	public SparseGraph getGraph() { return graph; }
+	public boolean isSparse() { return sparse; }
+	public int size() { return graph.size(); }
+
+	// unblocked shortest paths: the mapped tables of a compiled map, otherwise the packed Floyd-Warshall tables
+	public DistanceTable getBaseTable()
+	{
+		if (mappedTable != null)
+			return mappedTable;
+		buildAPSP();
+		return baseTable;
+	}
+
+	public synchronized void buildAPSP()
+	{
+		if (baseTable != null || mappedTable != null || sparse)
+			return; // already built, served from the map file, or never built at all
+		int n = adjMat.length;
+		Metrics.Sample sample = Metrics.start("buildAPSP");
+		SolverPhaseEvent event = SolverPhaseEvent.begin("apsp", "floydWarshall", n);
+		int[][] newApsp = new int[n][n];
+		int[][] newPath = new int[n][n];
+		int[][] newVia = new int[n][n];
+		floydWarshall(adjMat, newApsp, newPath, newVia);
+		SolverPhaseEvent.end(event);
+		sample.stop();
+		Metrics.increment("apsp.rebuilds");
+		if (CompactDistanceTable.fits(n))
+		{
+			baseTable = new CompactDistanceTable(newApsp, newPath, newVia);
+		}
+		else
+		{
+			// too big to pack flat, keep the arrays themselves
+			baseTable = new ArrayDistanceTable(newApsp, newPath, newVia);
+		}
+	}
+
+	// <via> gets the last pivot each entry improved through (-1 if never: the direct route, or no route at all);
+	// IncrementalAPSP needs it to break ties exactly as Floyd-Warshall does
+	static void floydWarshall(int[][] adjMat, int[][] apsp, int[][] path, int[][] via)
+	{
+		BlockedFloydWarshall.run(adjMat, apsp, path, via);
+	}
+
+	// the plain triple loop; BlockedFloydWarshall gives exactly the same tables, this stays as the reference
+	static void floydWarshallSimple(int[][] adjMat, int[][] apsp, int[][] path, int[][] via)
+	{
+		final int INF = Ticket2Ride.INF;
+		// copy adjMat to apsp table to start with
+		// and set intial paths
+		for (int i = 0; i < apsp.length; ++i)
+		{
+			for (int j = 0; j < apsp[i].length; ++j)
+			{
+				// if adjMat[i][j] is 0 or >= INF, then i-j is A) not connected or B) blocked (respectively)
+				apsp[i][j] = (adjMat[i][j] == 0 || adjMat[i][j] >= INF) ? INF : adjMat[i][j];
+				path[i][j] = (adjMat[i][j] == 0 || adjMat[i][j] > INF) ? -1 : j;
+				via[i][j] = -1;
+			}
+		}
+		// Floyd Warshall's algorithm
+		for (int k = 0; k < adjMat.length; ++k)
+			for (int i = 0; i < adjMat.length; ++i)
+				for (int j = 0; j < adjMat.length; ++j)
+				{
+					if (apsp[i][j] > apsp[i][k] + apsp[k][j])
+					{
+						apsp[i][j] = apsp[i][k] + apsp[k][j];
+						// set path values to record how to get from i to j
+						path[i][j] = path[i][k];
+						via[i][j] = k;
+					}
+				}
+	}
+}
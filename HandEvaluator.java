@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// scores many candidate ticket hands against one published snapshot without touching the session's own tickets
+public class HandEvaluator
+{
+	private final SessionSnapshot model;
+	private final ThreadLocal<SteinerApprox> scratch = ThreadLocal.withInitial(SteinerApprox::new);
+
+	// <model> must be published with tables (dense mode), see Ticket2Ride.buildAPSP
+	public HandEvaluator(SessionSnapshot model)
+	{
+		this.model = model;
+	}
+
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> evaluate(List<? extends Collection<Ticket>> hands)
+	{
+		return evaluate(hands, Runtime.getRuntime().availableProcessors());
+	}
+
+	// one result per hand, in the same order, shaped like steinerTreeApprox's
+	// a hand that can't be connected without a blocked route gets cost -1 and no routes
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> evaluate(List<? extends Collection<Ticket>> hands, int parallelism)
+	{
+		// score the hands in parallel against the one immutable snapshot
+		// (each task only sets its own slots, so the list needs no locking)
+		ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> results = new ArrayList<>(Collections.nCopies(hands.size(), null));
+		ArrayList<Collection<Ticket>> handList = new ArrayList<>(hands);
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try
+		{
+			pool.invoke(new HandTask(handList, results, 0, handList.size()));
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	private Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> evaluateHand(Collection<Ticket> hand)
+	{
+		// sorted, distinct ticket cities
+		int[] terminals = new int[2 * hand.size()];
+		int k = 0;
+		for (Ticket t : hand)
+		{
+			terminals[k++] = t.aIdx();
+			terminals[k++] = t.bIdx();
+		}
+		Arrays.sort(terminals, 0, k);
+		int distinct = 0;
+		for (int i = 0; i < k; ++i)
+			if (distinct == 0 || terminals[distinct - 1] != terminals[i])
+				terminals[distinct++] = terminals[i];
+
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>();
+		if (distinct < 2)
+			return new Pair<>(0, routes);
+		SteinerApprox approx = scratch.get();
+		int cost = approx.solve(model, terminals, distinct);
+		if (cost < 0)
+			return new Pair<>(-1, routes);
+		for (int i = 0; i < approx.routeCount(); ++i)
+			routes.add(new OrderedTriple<>(approx.routeFrom(i), approx.routeTo(i), 0));
+		return new Pair<>(cost, routes);
+	}
+
+	private class HandTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int CHUNK = 64;
+		private final ArrayList<Collection<Ticket>> hands;
+		private final ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> results;
+		private final int from, to;
+
+		HandTask(ArrayList<Collection<Ticket>> hands, ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> results, int from, int to)
+		{
+			this.hands = hands;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from <= CHUNK)
+			{
+				for (int i = from; i < to; ++i)
+					results.set(i, evaluateHand(hands.get(i)));
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new HandTask(hands, results, from, mid), new HandTask(hands, results, mid, to));
+		}
+	}
+}
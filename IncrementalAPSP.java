@@ -0,0 +1,229 @@
+import java.util.*;
+
+// repairs a session's shortest path tables after one route's weight changes, instead of rerunning Floyd-Warshall
+// the result is exactly the table Floyd-Warshall builds from the new weights, next hops and vias included: where
+// shortest paths tie, its pick follows from the pivot order, and the via table (the last pivot each pair improved
+// through, see GameMap.floydWarshall) is enough to redo that pick for one pair without rerunning it:
+//   d(i,j) >= INF: the starting entry stands (no hop, unless the weight is exactly INF), via -1
+//   the direct route is a shortest path: hop j, via -1
+//   otherwise via(i,j) is the smallest k (not i or j) on a shortest path with via(i,k) < k and via(k,j) < k, i.e. the
+//   first pivot at which both halves were already final, and the hop is the one towards k
+// (the diagonal follows the same rule, d(i,i) being the cheapest round trip, as Floyd-Warshall leaves it)
+// only pairs with a shortest path over the changed route, before or after, can come out differently, and each
+// depends only on pairs strictly shorter than itself, so those pairs are redone in order of their new distance
+public class IncrementalAPSP
+{
+	private static final int INF = Ticket2Ride.INF;
+
+	private IncrementalAPSP()
+	{
+		// static helpers only
+	}
+
+	// repairs <table> after the weight of edge a-b went up from <oldW>
+	// <adjMat> must already hold the new weight
+	// (the table copies a row on its first write, so rows shared with older snapshots stay as they are)
+	public static void edgeIncreased(int[][] adjMat, SessionDistanceTable table, int a, int b, int oldW)
+	{
+		int n = table.size();
+		if (oldW == 0 || oldW >= INF)
+			return; // edge was never usable, so no shortest path can have gone through it
+
+		// step 1: find every pair whose shortest path may have used a-b
+		// (must be done before any entry is touched, since the test reads the old distances; a shortest path over
+		// a-b after the increase was one before it too, so these are all the pairs that can change)
+		boolean[][] affected = overEdge(table, a, b, oldW);
+
+		// step 2: new distances for the affected entries, one single-source run per touched row
+		int[] d = new int[n];
+		boolean[] done = new boolean[n];
+		for (int i = 0; i < n; ++i)
+		{
+			if (affected[i] == null)
+				continue;
+			dijkstra(adjMat, i, d, done);
+			for (int j = 0; j < n; ++j)
+				if (affected[i][j])
+					table.setDistance(i, j, d[j]);
+		}
+
+		// step 3: their next hops
+		redo(adjMat, table, affected);
+	}
+
+	// repairs <table> after the weight of edge a-b went down (<adjMat> already holds the new weight)
+	public static void edgeDecreased(int[][] adjMat, SessionDistanceTable table, int a, int b)
+	{
+		int n = table.size();
+		int newW = adjMat[a][b];
+		if (newW == 0 || newW >= INF)
+			return; // edge still unusable
+
+		// step 1: relax every pair through the changed edge
+		// a new shortest path uses a-b at most once, and its two halves don't use it at all,
+		// so only the old distances to a and b are needed
+		int[] toA = new int[n], toB = new int[n];
+		for (int x = 0; x < n; ++x)
+		{
+			toA[x] = dist(table, x, a);
+			toB[x] = dist(table, x, b);
+		}
+		for (int i = 0; i < n; ++i)
+		{
+			for (int j = 0; j < n; ++j)
+			{
+				if (i == j)
+					continue;
+				long viaAB = (toA[i] >= INF || toB[j] >= INF) ? Long.MAX_VALUE : (long) toA[i] + newW + toB[j];
+				long viaBA = (toB[i] >= INF || toA[j] >= INF) ? Long.MAX_VALUE : (long) toB[i] + newW + toA[j];
+				long best = Math.min(viaAB, viaBA);
+				if (best < table.distance(i, j))
+					table.setDistance(i, j, (int) best);
+			}
+		}
+
+		// step 2: every pair with a shortest path over a-b now, which takes in every pair that had one before (that
+		// path only got shorter), every pair that just got shorter, and every pair where a-b only ties
+		boolean[][] affected = overEdge(table, a, b, newW);
+
+		// step 3: their next hops
+		redo(adjMat, table, affected);
+	}
+
+	// pairs i-j (i != j) with a shortest path over a-b at weight <w>, by the distances currently in <table>
+	// (rows without any are left null)
+	private static boolean[][] overEdge(SessionDistanceTable table, int a, int b, int w)
+	{
+		int n = table.size();
+		boolean[][] affected = new boolean[n][];
+		for (int i = 0; i < n; ++i)
+		{
+			int ia = dist(table, i, a), ib = dist(table, i, b);
+			if (ia >= INF && ib >= INF)
+				continue;
+			for (int j = 0; j < n; ++j)
+			{
+				int ij = table.distance(i, j);
+				if (i == j || ij >= INF)
+					continue;
+				long viaAB = (long) ia + w + dist(table, b, j);
+				long viaBA = (long) ib + w + dist(table, a, j);
+				if (viaAB == ij || viaBA == ij)
+				{
+					if (affected[i] == null)
+						affected[i] = new boolean[n];
+					affected[i][j] = true;
+				}
+			}
+		}
+		return affected;
+	}
+
+	// next hops and vias for the <affected> pairs, whose distances are already repaired, plus the diagonal of every
+	// touched row, shortest first so that every pair a choice reads is final by then
+	private static void redo(int[][] adjMat, SessionDistanceTable table, boolean[][] affected)
+	{
+		int n = table.size();
+		long[] order = new long[16]; // (distance << 32) | (i * n + j)
+		int count = 0;
+		for (int i = 0; i < n; ++i)
+		{
+			if (affected[i] == null)
+				continue;
+			// the diagonal: the cheapest round trip out of i, i.e. twice the nearest city
+			int best = INF;
+			for (int k = 0; k < n; ++k)
+			{
+				int ik = table.distance(i, k);
+				if (k != i && ik < INF && 2L * ik < best)
+					best = 2 * ik;
+			}
+			table.setDistance(i, i, best);
+			affected[i][i] = true;
+
+			for (int j = 0; j < n; ++j)
+			{
+				if (!affected[i][j])
+					continue;
+				int d = table.distance(i, j);
+				if (d >= INF)
+				{
+					table.setHop(i, j, (adjMat[i][j] == 0 || adjMat[i][j] > INF) ? -1 : j, -1);
+					continue;
+				}
+				if (count == order.length)
+					order = Arrays.copyOf(order, 2 * count);
+				order[count++] = ((long) d << 32) | ((long) i * n + j);
+			}
+		}
+		Arrays.sort(order, 0, count);
+
+		for (int x = 0; x < count; ++x)
+		{
+			long cell = order[x] & 0xFFFFFFFFL;
+			choose(adjMat, table, (int) (cell / n), (int) (cell % n));
+		}
+	}
+
+	// Floyd-Warshall's pick for i-j (see the top of the file)
+	private static void choose(int[][] adjMat, SessionDistanceTable table, int i, int j)
+	{
+		int n = table.size();
+		int d = table.distance(i, j);
+		int w = adjMat[i][j];
+		if (w != 0 && w < INF && w == d)
+		{
+			table.setHop(i, j, j, -1);
+			return;
+		}
+		for (int k = 0; k < n; ++k)
+		{
+			if (k == i || k == j)
+				continue;
+			int ik = table.distance(i, k), kj = table.distance(k, j);
+			if (ik >= INF || kj >= INF || ik + kj != d)
+				continue;
+			if (table.via(i, k) < k && table.via(k, j) < k)
+			{
+				table.setHop(i, j, table.nextHop(i, k), k);
+				return;
+			}
+		}
+		throw new IllegalStateException(String.format("No shortest path found for %d-%d", i, j));
+	}
+
+	// distance with the diagonal read as 0
+	// (Floyd-Warshall leaves apsp[i][i] as the cheapest round trip, which is no use as a path prefix)
+	private static int dist(SessionDistanceTable table, int i, int j)
+	{
+		return i == j ? 0 : table.distance(i, j);
+	}
+
+	// O(n^2) Dijkstra over the dense adjacency matrix
+	private static void dijkstra(int[][] adjMat, int src, int[] d, boolean[] done)
+	{
+		int n = adjMat.length;
+		Arrays.fill(d, INF);
+		Arrays.fill(done, false);
+		d[src] = 0;
+		for (int iter = 0; iter < n; ++iter)
+		{
+			int u = -1;
+			for (int v = 0; v < n; ++v)
+				if (!done[v] && d[v] < INF && (u == -1 || d[v] < d[u]))
+					u = v;
+			if (u == -1)
+				break;
+			done[u] = true;
+			for (int v = 0; v < n; ++v)
+			{
+				int w = adjMat[u][v];
+				if (w == 0 || w >= INF || done[v])
+					continue;
+				if (d[u] + w < d[v])
+					d[v] = d[u] + w;
+			}
+		}
+		d[src] = INF; // the diagonal is redone separately
+	}
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+
+// keeps the metric closure MST over the ticket cities (and its expanded routes) live as tickets come and go,
+// so steinerTreeApprox doesn't have to rebuild the k^2 closure on every query
+// closure edges are ordered by (distance, lower city, higher city), the same strict order SteinerApprox's Kruskal
+// ends up using, so the maintained tree is always exactly the one a fresh solve would build
+//
+// adding a ticket city: Kruskal over the old tree's k - 1 edges plus the k new closure edges (cycle property)
+// removing one: every other tree edge stays, Kruskal reconnects the pieces it falls into
+// blocking or unblocking changes the distances themselves, so the tree is rebuilt from scratch
+// not thread-safe: Ticket2Ride drives it under its own lock, readers only see the published Result
+public class IncrementalSteiner
+{
+	// answer for one published snapshot, immutable
+	static class Result
+	{
+		final long version;
+		final Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> routes; // null if the cities can't be connected
+
+		Result(long version, Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> routes)
+		{
+			this.version = version;
+			this.routes = routes;
+		}
+	}
+
+	private final TreeSet<Integer> terminals = new TreeSet<>();
+	private TreeSet<OrderedTriple<Integer, Integer, Integer>> mst = new TreeSet<>(); // (distance, a, b) with a < b
+	private final TreeMap<Long, Integer> hops = new TreeMap<>(); // from << 32 | to -> number of tree edges walking it
+	private long mstCost = 0;
+	private int cost = 0; // trains over the distinct hops
+	// what the tree was built against; a different table means different distances or tie-breaks
+	private DistanceTable syncedTable;
+	private SparseGraph syncedGraph;
+	private volatile Result result;
+
+	// the maintained answer, if it belongs to <model>
+	Result resultFor(SessionSnapshot model)
+	{
+		Result r = result;
+		return r != null && r.version == model.getVersion() ? r : null;
+	}
+
+	// brings the tree up to date with <model>, which must have its tables (see SessionSnapshot.hasTables)
+	void sync(SessionSnapshot model)
+	{
+		if (model.getTable() != syncedTable || model.getGraph() != syncedGraph)
+		{
+			// distances changed under us: start over
+			terminals.clear();
+			mst.clear();
+			hops.clear();
+			mstCost = 0;
+			cost = 0;
+			syncedTable = model.getTable();
+			syncedGraph = model.getGraph();
+		}
+
+		// step 1: drop ticket cities that are gone, then add the new ones
+		Set<Integer> wanted = model.getCityUsages().keySet();
+		for (Iterator<Integer> it = terminals.iterator(); it.hasNext(); )
+		{
+			int city = it.next();
+			if (!wanted.contains(city))
+			{
+				it.remove();
+				removeTerminal(model, city);
+			}
+		}
+		for (int city : wanted)
+		{
+			if (!terminals.contains(city))
+			{
+				addTerminal(model, city);
+				terminals.add(city);
+			}
+		}
+
+		// step 2: publish the answer in the shape steinerTreeApprox returns
+		if (mstCost >= 1000000)
+		{
+			// cost over 1 million, so the tree had no choice but to use a blocked route
+			result = new Result(model.getVersion(), null);
+			return;
+		}
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>(hops.size());
+		for (long hop : hops.keySet())
+			routes.add(new OrderedTriple<>((int) (hop >>> 32), (int) hop, 0));
+		result = new Result(model.getVersion(), new Pair<>(cost, routes));
+	}
+
+	private void addTerminal(SessionSnapshot model, int city)
+	{
+		// the new tree lies within the old tree plus the new city's closure edges
+		SolverPhaseEvent event = SolverPhaseEvent.begin("incremental", "closure", terminals.size() + 1);
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> candidates = new TreeSet<>(mst);
+		for (int other : terminals)
+			candidates.add(closureEdge(model, city, other));
+		SolverPhaseEvent.end(event);
+		event = SolverPhaseEvent.begin("incremental", "mst", terminals.size() + 1);
+		TreeMap<Integer, Integer> uf = new TreeMap<>();
+		for (int t : terminals)
+			uf.put(t, t);
+		uf.put(city, city);
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> next = kruskal(candidates, uf);
+		SolverPhaseEvent.end(event);
+		replaceTree(model, next);
+	}
+
+	private void removeTerminal(SessionSnapshot model, int city)
+	{
+		// tree edges away from <city> all stay; join the pieces left behind with the cheapest closure edges between them
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> kept = new TreeSet<>();
+		for (OrderedTriple<Integer, Integer, Integer> e : mst)
+			if (e.second() != city && e.third() != city)
+				kept.add(e);
+		TreeMap<Integer, Integer> uf = new TreeMap<>();
+		for (int t : terminals)
+			uf.put(t, t);
+		for (OrderedTriple<Integer, Integer, Integer> e : kept)
+			union(uf, e.second(), e.third());
+
+		SolverPhaseEvent event = SolverPhaseEvent.begin("incremental", "closure", terminals.size());
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> candidates = new TreeSet<>(kept);
+		if (kept.size() + 1 < terminals.size())
+		{
+			for (int a : terminals)
+				for (int b : terminals.tailSet(a, false))
+					if (find(uf, a) != find(uf, b))
+						candidates.add(closureEdge(model, a, b));
+		}
+		SolverPhaseEvent.end(event);
+		event = SolverPhaseEvent.begin("incremental", "mst", terminals.size());
+		for (int t : terminals)
+			uf.put(t, t);
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> next = kruskal(candidates, uf);
+		SolverPhaseEvent.end(event);
+		replaceTree(model, next);
+	}
+
+	// swaps in <next>, expanding only the edges that are new and retracting only those that went away
+	private void replaceTree(SessionSnapshot model, TreeSet<OrderedTriple<Integer, Integer, Integer>> next)
+	{
+		SolverPhaseEvent event = SolverPhaseEvent.begin("incremental", "expand", next.size() + 1);
+		for (OrderedTriple<Integer, Integer, Integer> e : mst)
+			if (!next.contains(e))
+				walk(model, e, -1);
+		for (OrderedTriple<Integer, Integer, Integer> e : next)
+			if (!mst.contains(e))
+				walk(model, e, 1);
+		mst = next;
+		SolverPhaseEvent.end(event);
+	}
+
+	// adds (delta 1) or takes away (delta -1) the hops of one closure edge, walked lower city to higher like SteinerApprox
+	private void walk(SessionSnapshot model, OrderedTriple<Integer, Integer, Integer> e, int delta)
+	{
+		mstCost += delta * (long) e.first();
+		if (e.first() >= Ticket2Ride.INF)
+			return; // not connected at all, so no path to walk (and the tree is reported unusable anyway)
+		int currentV = e.second();
+		int lastV = e.third();
+		while (currentV != lastV)
+		{
+			int nextV = model.nextHop(currentV, lastV);
+			long hop = ((long) currentV << 32) | nextV;
+			int count = hops.getOrDefault(hop, 0) + delta;
+			if (count == 0)
+			{
+				hops.remove(hop);
+				cost -= model.edgeWeight(currentV, nextV);
+			}
+			else
+			{
+				if (count == 1 && delta > 0)
+					cost += model.edgeWeight(currentV, nextV);
+				hops.put(hop, count);
+			}
+			currentV = nextV;
+		}
+	}
+
+	private static OrderedTriple<Integer, Integer, Integer> closureEdge(SessionSnapshot model, int a, int b)
+	{
+		return new OrderedTriple<>(model.distance(Math.min(a, b), Math.max(a, b)), Math.min(a, b), Math.max(a, b));
+	}
+
+	private static TreeSet<OrderedTriple<Integer, Integer, Integer>> kruskal(TreeSet<OrderedTriple<Integer, Integer, Integer>> edges, TreeMap<Integer, Integer> uf)
+	{
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> tree = new TreeSet<>();
+		for (OrderedTriple<Integer, Integer, Integer> e : edges)
+			if (union(uf, e.second(), e.third()))
+				tree.add(e);
+		return tree;
+	}
+
+	private static boolean union(TreeMap<Integer, Integer> uf, int a, int b)
+	{
+		int ra = find(uf, a), rb = find(uf, b);
+		if (ra == rb)
+			return false;
+		uf.put(ra, rb);
+		return true;
+	}
+
+	private static int find(TreeMap<Integer, Integer> uf, int a)
+	{
+		while (uf.get(a) != a)
+			a = uf.get(a);
+		return a;
+	}
+}
@@ -0,0 +1,74 @@
+import java.io.*;
+
+// compiles a text map (usa.txt format) into the binary format GameMap.loadCompiled memory-maps
+// usage: java MapCompiler <map.txt> <map.t2r> [-notables]
+// with tables, startup skips Floyd-Warshall entirely; without, the file only saves the text parsing
+public class MapCompiler
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: java MapCompiler <map.txt> <map.t2r> [-notables]");
+			System.exit(1);
+		}
+		boolean withTables = !(args.length > 2 && args[2].equals("-notables"));
+		long start = System.nanoTime();
+		GameMap map = GameMap.load(args[0], !withTables);
+		compile(map, args[1], withTables);
+		System.out.printf("Compiled %s (%d cities, %d routes%s) to %s in %.1f ms%n", args[0], map.size(), map.getGraph().edgeCount(),
+						  withTables ? ", with APSP" : "", args[1], (System.nanoTime() - start) / 1e6);
+	}
+
+	public static void compile(GameMap map, String filename, boolean withTables) throws IOException
+	{
+		int n = map.size();
+		if (withTables && 4L * n * n > Integer.MAX_VALUE)
+			throw new IOException(String.format("Map too big to store tables (%d cities)", n));
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)))
+		{
+			// header
+			out.writeInt(GameMap.MAGIC);
+			out.writeInt(GameMap.FORMAT_VERSION);
+			out.writeInt(n);
+			out.writeInt(map.getGraph().edgeCount());
+			out.writeInt(withTables ? 1 : 0);
+
+			// city name table, in index order
+			for (int i = 0; i < n; ++i)
+			{
+				byte[] name = map.getCities().name(i).getBytes("UTF-8");
+				out.writeShort(name.length);
+				out.write(name);
+			}
+
+			// CSR edge arrays
+			SparseGraph graph = map.getGraph();
+			writeInts(out, graph.offsets());
+			writeInts(out, graph.targets());
+			writeInts(out, graph.weights());
+
+			// precomputed shortest path tables, row-major
+			if (withTables)
+			{
+				DistanceTable table = map.getBaseTable();
+				for (int i = 0; i < n; ++i)
+					for (int j = 0; j < n; ++j)
+						out.writeInt(table.distance(i, j));
+				for (int i = 0; i < n; ++i)
+					for (int j = 0; j < n; ++j)
+						out.writeInt(table.nextHop(i, j));
+				for (int i = 0; i < n; ++i)
+					for (int j = 0; j < n; ++j)
+						out.writeInt(table.via(i, j));
+			}
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException
+	{
+		for (int v : values)
+			out.writeInt(v);
+	}
+}
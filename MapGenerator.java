@@ -0,0 +1,86 @@
+import java.util.*;
+import java.io.*;
+
+// generates synthetic maps in the text edge-list format GameMap.load reads
+// usage: java MapGenerator <cities> <map.txt> [seed]
+//
+// cities sit on a jittered square grid, joined to their right and lower neighbours plus, in about a third
+// of the grid cells, one of the two diagonals; no two routes cross, so the map stays planar like a real board
+// route lengths follow the distance between the cities, clamped to 1-8 the way the printed boards are
+public class MapGenerator
+{
+	private static final double JITTER = 0.3;      // how far a city may stray from its grid point, in grid units
+	private static final double DIAGONALS = 0.35;  // share of grid cells that get a diagonal route
+	private static final double TRAINS_PER_UNIT = 2.5;
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: java MapGenerator <cities> <map.txt> [seed]");
+			System.exit(1);
+		}
+		int n = Integer.parseInt(args[0]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		int routes = generate(n, seed, new File(args[1]));
+		System.out.printf("Generated %s: %d cities, %d routes%n", args[1], n, routes);
+	}
+
+	// writes the map to <file> and returns its route count
+	public static int generate(int n, long seed, File file) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16)))
+		{
+			return generate(n, seed, out);
+		}
+	}
+
+	public static int generate(int n, long seed, PrintWriter out)
+	{
+		if (n < 2)
+			throw new IllegalArgumentException(String.format("Need at least 2 cities (%d)", n));
+		Random rnd = new Random(seed);
+		int width = (int) Math.ceil(Math.sqrt(n));
+		double[] x = new double[n], y = new double[n];
+		for (int i = 0; i < n; ++i)
+		{
+			x[i] = i % width + JITTER * (2 * rnd.nextDouble() - 1);
+			y[i] = i / width + JITTER * (2 * rnd.nextDouble() - 1);
+		}
+
+		out.println(n);
+		int routes = 0;
+		for (int i = 0; i < n; ++i)
+		{
+			boolean hasRight = (i + 1) % width != 0 && i + 1 < n;
+			boolean hasDown = i + width < n;
+			if (hasRight)
+			{
+				route(out, rnd, x, y, i, i + 1);
+				++routes;
+			}
+			if (hasDown)
+			{
+				route(out, rnd, x, y, i, i + width);
+				++routes;
+			}
+			// a diagonal across the cell whose top-left corner is i, if the cell is complete
+			if (hasRight && i + width + 1 < n && rnd.nextDouble() < DIAGONALS)
+			{
+				if (rnd.nextBoolean())
+					route(out, rnd, x, y, i, i + width + 1);
+				else
+					route(out, rnd, x, y, i + 1, i + width);
+				++routes;
+			}
+		}
+		return routes;
+	}
+
+	private static void route(PrintWriter out, Random rnd, double[] x, double[] y, int a, int b)
+	{
+		double d = Math.hypot(x[a] - x[b], y[a] - y[b]);
+		long w = Math.round(d * TRAINS_PER_UNIT + 0.9 * rnd.nextGaussian());
+		out.printf("c%d c%d %d%n", a, b, Math.max(1, Math.min(8, w)));
+	}
+}
@@ -0,0 +1,23 @@
+import java.nio.*;
+
+// row-major n*n tables read straight out of a memory-mapped compiled map file
+class MappedDistanceTable implements DistanceTable
+{
+	private final int n;
+	private final IntBuffer apsp;
+	private final IntBuffer path;
+	private final IntBuffer via;
+
+	MappedDistanceTable(int n, IntBuffer apsp, IntBuffer path, IntBuffer via)
+	{
+		this.n = n;
+		this.apsp = apsp;
+		this.path = path;
+		this.via = via;
+	}
+
+	public int size() { return n; }
+	public int distance(int u, int v) { return apsp.get(u * n + v); }
+	public int nextHop(int u, int v) { return path.get(u * n + v); }
+	public int via(int u, int v) { return via.get(u * n + v); }
+}
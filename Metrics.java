@@ -0,0 +1,215 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.lang.management.*;
+
+// process-wide latency histograms and counters for the hot paths (map loading, APSP, the path solvers, city lookup),
+// cheap enough to leave on: recording is a few atomic adds, no locks and no allocation beyond the Sample itself
+// usage:
+//   Metrics.Sample sample = Metrics.start("buildAPSP");
+//   try { ... } finally { sample.stop(); }
+//   Metrics.increment("apsp.rebuilds");
+// latencies go into log-linear histograms (HdrHistogram-style: exact below 128 ns, then 64 sub-buckets per power of
+// two, so any percentile is within 1.6% of the true value); each sample also records the bytes its thread allocated,
+// where the JVM can tell (com.sun.management.ThreadMXBean)
+// the solvers additionally emit JFR events per phase, see SolverPhaseEvent
+public class Metrics
+{
+	public static class Histogram
+	{
+		private static final int SUB_BITS = 7;                  // 128 exact values, then 64 per power of two
+		private static final int HALF = 1 << (SUB_BITS - 1);
+		private static final int BUCKETS = (1 << SUB_BITS) + (63 - SUB_BITS + 1) * HALF;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder allocBytes = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos, long bytes)
+		{
+			nanos = Math.max(0, nanos);
+			counts.incrementAndGet(index(nanos));
+			count.increment();
+			totalNanos.add(nanos);
+			if (bytes > 0)
+				allocBytes.add(bytes);
+			long m = max.get();
+			while (nanos > m && !max.compareAndSet(m, nanos))
+				m = max.get();
+		}
+
+		public long count() { return count.sum(); }
+		public long maxNanos() { return max.get(); }
+		public double meanNanos() { long c = count(); return c == 0 ? 0 : (double) totalNanos.sum() / c; }
+		public double meanAllocBytes() { long c = count(); return c == 0 ? 0 : (double) allocBytes.sum() / c; }
+
+		// smallest recorded value v (to bucket precision) with at least <p> percent of the samples at or below it
+		public long percentile(double p)
+		{
+			long total = 0;
+			long[] snapshot = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; ++i)
+			{
+				snapshot[i] = counts.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; ++i)
+			{
+				seen += snapshot[i];
+				if (seen >= rank)
+					return Math.min(highestInBucket(i), maxNanos());
+			}
+			return maxNanos();
+		}
+
+		void reset()
+		{
+			for (int i = 0; i < BUCKETS; ++i)
+				counts.set(i, 0);
+			count.reset();
+			totalNanos.reset();
+			allocBytes.reset();
+			max.set(0);
+		}
+
+		// values below 128 get a bucket each; above that, bucket b (b >= 1) holds [64 << b, 128 << b) in 64 steps
+		static int index(long v)
+		{
+			if (v < (1 << SUB_BITS))
+				return (int) v;
+			int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+			return (1 << SUB_BITS) + (shift - 1) * HALF + (int) (v >>> shift) - HALF;
+		}
+
+		static long highestInBucket(int i)
+		{
+			if (i < (1 << SUB_BITS))
+				return i;
+			int shift = (i - (1 << SUB_BITS)) / HALF + 1;
+			long sub = (i - (1 << SUB_BITS)) % HALF + HALF;
+			return ((sub + 1) << shift) - 1;
+		}
+	}
+
+	// one timed call in progress
+	public static class Sample
+	{
+		private final Histogram histogram;
+		private final long startNanos;
+		private final long startBytes;
+
+		private Sample(Histogram histogram)
+		{
+			this.histogram = histogram;
+			this.startBytes = allocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+
+		public void stop()
+		{
+			long nanos = System.nanoTime() - startNanos;
+			long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+			histogram.record(nanos, bytes);
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private static final com.sun.management.ThreadMXBean threads = allocationBean();
+
+	private static com.sun.management.ThreadMXBean allocationBean()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		return sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled() ? sunBean : null;
+	}
+
+	// bytes allocated so far by the calling thread, -1 if the JVM can't tell
+	static long allocatedBytes()
+	{
+		return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static Sample start(String operation)
+	{
+		return new Sample(histogram(operation));
+	}
+
+	public static void increment(String counter)
+	{
+		counters.computeIfAbsent(counter, name -> new LongAdder()).increment();
+	}
+
+	public static Histogram histogram(String operation)
+	{
+		return histograms.computeIfAbsent(operation, name -> new Histogram());
+	}
+
+	public static long counter(String counter)
+	{
+		LongAdder adder = counters.get(counter);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	public static void reset()
+	{
+		for (Histogram h : histograms.values())
+			h.reset();
+		for (LongAdder c : counters.values())
+			c.reset();
+	}
+
+	// human-readable table, operations and counters in name order
+	public static void report(java.io.PrintStream out)
+	{
+		TreeMap<String, Histogram> ops = new TreeMap<>(histograms);
+		out.printf("%-26s %8s %10s %10s %10s %10s %10s %12s%n", "operation", "count", "mean us", "p50 us", "p90 us", "p99 us", "max us", "alloc/op KB");
+		for (Map.Entry<String, Histogram> e : ops.entrySet())
+		{
+			Histogram h = e.getValue();
+			if (h.count() == 0)
+				continue;
+			out.printf(Locale.ROOT, "%-26s %8d %10.1f %10.1f %10.1f %10.1f %10.1f %12s%n", e.getKey(), h.count(), h.meanNanos() / 1e3,
+					   h.percentile(50) / 1e3, h.percentile(90) / 1e3, h.percentile(99) / 1e3, h.maxNanos() / 1e3,
+					   threads == null ? "n/a" : String.format(Locale.ROOT, "%.1f", h.meanAllocBytes() / 1024));
+		}
+		for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet())
+			out.printf("%-26s %8d%n", e.getKey(), e.getValue().sum());
+	}
+
+	// the same as one JSON object:
+	//   {"operations": {"<name>": {"count": .., "meanNs": .., "p50Ns": .., "p90Ns": .., "p99Ns": .., "maxNs": .., "allocBytesPerOp": ..}, ..},
+	//    "counters": {"<name>": .., ..}}
+	public static String toJson()
+	{
+		StringBuilder sb = new StringBuilder("{\"operations\": {");
+		boolean first = true;
+		for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet())
+		{
+			Histogram h = e.getValue();
+			if (h.count() == 0)
+				continue;
+			sb.append(first ? "" : ", ").append('"').append(e.getKey()).append("\": ");
+			sb.append(String.format(Locale.ROOT, "{\"count\": %d, \"meanNs\": %.1f, \"p50Ns\": %d, \"p90Ns\": %d, \"p99Ns\": %d, \"maxNs\": %d, \"allocBytesPerOp\": %s}",
+									h.count(), h.meanNanos(), h.percentile(50), h.percentile(90), h.percentile(99), h.maxNanos(),
+									threads == null ? "null" : String.format(Locale.ROOT, "%.1f", h.meanAllocBytes())));
+			first = false;
+		}
+		sb.append("}, \"counters\": {");
+		first = true;
+		for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet())
+		{
+			sb.append(first ? "" : ", ").append('"').append(e.getKey()).append("\": ").append(e.getValue().sum());
+			first = false;
+		}
+		return sb.append("}}").toString();
+	}
+}
@@ -0,0 +1,255 @@
+import java.util.*;
+
+public class ModifiedTSP
+{
+	private static final int INF = Ticket2Ride.INF;
+	// Held-Karp needs 2^k * k ints, beyond this fall back to the heuristic
+	public static final int MAX_EXACT = 16;
+
+	private final SessionSnapshot model;
+	private final int[] terminals;
+	private final int k;
+	private final int[][] dist; // metric closure between terminals
+	private final long budgetNanos;
+
+	public ModifiedTSP(SessionSnapshot model, int[] terminals, long budgetMillis)
+	{
+		this.model = model;
+		this.terminals = terminals;
+		this.k = terminals.length;
+		this.budgetNanos = budgetMillis * 1000000L;
+		dist = new int[k][k];
+		for (int i = 0; i < k; ++i)
+			for (int j = 0; j < k; ++j)
+				dist[i][j] = i == j ? 0 : model.distance(terminals[i], terminals[j]);
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> solve() throws Exception
+	{
+		if (k <= 1)
+			return new Pair<>(0, new ArrayList<>()); // no ticket cities, or one with nowhere to go
+
+		// step 1: order the ticket cities along one open path
+		int[] order = k <= MAX_EXACT ? heldKarp() : heuristic();
+		for (int i = 0; i + 1 < k; ++i)
+			if (dist[order[i]][order[i + 1]] >= INF)
+				throw new Exception("Unable to connect all cities"); // the ticket cities lie in separate parts of the map
+
+		// step 2: expand consecutive cities to full paths in the original graph, in travel order
+		// (walking back over a route already claimed costs nothing)
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> claimed = new TreeSet<>();
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>();
+		int cost = 0;
+		for (int i = 0; i + 1 < k; ++i)
+		{
+			int currentV = terminals[order[i]];
+			int lastV = terminals[order[i + 1]];
+			while (currentV != lastV)
+			{
+				int nextV = model.nextHop(currentV, lastV);
+				if (nextV == -1)
+					throw new Exception("Unable to connect all cities");
+				if (claimed.add(new OrderedTriple<>(Math.min(currentV, nextV), Math.max(currentV, nextV), 0)))
+				{
+					routes.add(new OrderedTriple<>(currentV, nextV, 0));
+					cost += model.edgeWeight(currentV, nextV);
+				}
+				currentV = nextV;
+			}
+		}
+		if (cost >= 1000000)
+		{
+			// cost over 1 million, so the route had no choice but to use a blocked route
+			throw new Exception("Unable to connect all cities");
+		}
+		return new Pair<>(cost, routes);
+	}
+
+	// exact open-path Held-Karp: best[mask][last] is the cheapest path through <mask> ending at <last>
+	private int[] heldKarp() throws Exception
+	{
+		int full = (1 << k) - 1;
+		int[][] best = new int[1 << k][k];
+		for (int[] row : best)
+			Arrays.fill(row, INF);
+		for (int i = 0; i < k; ++i)
+			best[1 << i][i] = 0; // no return to the start, so any city may begin the route
+
+		for (int mask = 1; mask <= full; ++mask)
+		{
+			for (int bits = mask; bits != 0; bits &= bits - 1)
+			{
+				int last = Integer.numberOfTrailingZeros(bits);
+				int c = best[mask][last];
+				if (c >= INF)
+					continue;
+				for (int rest = full & ~mask; rest != 0; rest &= rest - 1)
+				{
+					int next = Integer.numberOfTrailingZeros(rest);
+					int nc = c + dist[last][next];
+					if (nc < best[mask | (1 << next)][next])
+						best[mask | (1 << next)][next] = nc;
+				}
+			}
+		}
+
+		// pick the cheapest end, then walk the table backwards
+		int last = 0;
+		for (int i = 1; i < k; ++i)
+			if (best[full][i] < best[full][last])
+				last = i;
+		if (best[full][last] >= INF)
+			throw new Exception("Unable to connect all cities"); // no path through them all, nothing to walk back
+		int[] order = new int[k];
+		int mask = full;
+		for (int pos = k - 1; pos > 0; --pos)
+		{
+			order[pos] = last;
+			int prevMask = mask ^ (1 << last);
+			for (int bits = prevMask; bits != 0; bits &= bits - 1)
+			{
+				int prev = Integer.numberOfTrailingZeros(bits);
+				if (best[prevMask][prev] < INF && best[prevMask][prev] + dist[prev][last] == best[mask][last])
+				{
+					last = prev;
+					break;
+				}
+			}
+			mask = prevMask;
+		}
+		order[0] = last;
+		return order;
+	}
+
+	// nearest neighbour from every start, then 2-opt and Or-opt moves until nothing improves or time runs out
+	private int[] heuristic()
+	{
+		long deadline = System.nanoTime() + budgetNanos;
+		int[] order = null;
+		long orderCost = Long.MAX_VALUE;
+		boolean[] used = new boolean[k];
+		for (int start = 0; start < k && (order == null || System.nanoTime() < deadline); ++start)
+		{
+			int[] candidate = new int[k];
+			Arrays.fill(used, false);
+			candidate[0] = start;
+			used[start] = true;
+			for (int pos = 1; pos < k; ++pos)
+			{
+				int from = candidate[pos - 1], pick = -1;
+				for (int j = 0; j < k; ++j)
+					if (!used[j] && (pick == -1 || dist[from][j] < dist[from][pick]))
+						pick = j;
+				candidate[pos] = pick;
+				used[pick] = true;
+			}
+			long c = pathCost(candidate);
+			if (c < orderCost)
+			{
+				order = candidate;
+				orderCost = c;
+			}
+		}
+
+		boolean improved = true;
+		while (improved && System.nanoTime() < deadline)
+			improved = twoOpt(order) | orOpt(order);
+		return order;
+	}
+
+	// reverse order[i..j] whenever that shortens the path
+	private boolean twoOpt(int[] order)
+	{
+		boolean improved = false;
+		for (int i = 0; i < k - 1; ++i)
+		{
+			for (int j = i + 1; j < k; ++j)
+			{
+				int prev = i > 0 ? order[i - 1] : -1;
+				int next = j < k - 1 ? order[j + 1] : -1;
+				long delta = (long) cost(prev, order[j]) + cost(order[i], next) - cost(prev, order[i]) - cost(order[j], next);
+				if (delta < 0)
+				{
+					for (int a = i, b = j; a < b; ++a, --b)
+					{
+						int tmp = order[a];
+						order[a] = order[b];
+						order[b] = tmp;
+					}
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// move a run of 1-3 cities (either way round) to a cheaper gap
+	private boolean orOpt(int[] order)
+	{
+		boolean improved = false;
+		for (int len = 1; len <= 3 && len < k; ++len)
+		{
+			for (int i = 0; i + len <= k; ++i)
+			{
+				int first = order[i], last = order[i + len - 1];
+				int prev = i > 0 ? order[i - 1] : -1;
+				int next = i + len < k ? order[i + len] : -1;
+				long removeGain = (long) cost(prev, first) + cost(last, next) - cost(prev, next);
+
+				// path with the run taken out
+				int[] rest = new int[k - len];
+				System.arraycopy(order, 0, rest, 0, i);
+				System.arraycopy(order, i + len, rest, i, k - i - len);
+
+				int bestGap = -1;
+				boolean bestReversed = false;
+				long bestAdd = removeGain;
+				for (int g = 0; g <= rest.length; ++g)
+				{
+					if (g == i)
+						continue; // that's where it came from
+					int a = g > 0 ? rest[g - 1] : -1;
+					int b = g < rest.length ? rest[g] : -1;
+					long add = (long) cost(a, first) + cost(last, b) - cost(a, b);
+					long addReversed = (long) cost(a, last) + cost(first, b) - cost(a, b);
+					if (add < bestAdd)
+					{
+						bestAdd = add;
+						bestGap = g;
+						bestReversed = false;
+					}
+					if (addReversed < bestAdd)
+					{
+						bestAdd = addReversed;
+						bestGap = g;
+						bestReversed = true;
+					}
+				}
+				if (bestGap != -1)
+				{
+					int[] run = Arrays.copyOfRange(order, i, i + len);
+					System.arraycopy(rest, 0, order, 0, bestGap);
+					for (int r = 0; r < len; ++r)
+						order[bestGap + r] = bestReversed ? run[len - 1 - r] : run[r];
+					System.arraycopy(rest, bestGap, order, bestGap + len, rest.length - bestGap);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// closure distance, with -1 standing for the open ends of the path
+	private int cost(int a, int b)
+	{
+		return (a == -1 || b == -1) ? 0 : dist[a][b];
+	}
+
+	private long pathCost(int[] order)
+	{
+		long c = 0;
+		for (int i = 0; i + 1 < k; ++i)
+			c += dist[order[i]][order[i + 1]];
+		return c;
+	}
+}
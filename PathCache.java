@@ -0,0 +1,138 @@
+import java.util.*;
+
+// bounded LRU cache of path results, keyed by (algorithm, ticket set, blocked set)
+// players flip the same tickets and blocks back and forth while exploring, so most path queries
+// have been answered before; a hit skips the solver entirely
+// keys are a 64-bit hash of the canonical (sorted) contents, and the contents are kept alongside to rule out collisions
+// failures ("Unable to connect all cities") are cached too, and rethrown on a hit
+// thread-safe; the cache keeps its own copy of each result and hands every caller a fresh one, so a caller
+// that sorts or trims the routes it got back can't change what later hits see
+public class PathCache
+{
+	public interface Solver
+	{
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> solve() throws Exception;
+	}
+
+	private static class Entry
+	{
+		final long[] key;
+		final Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result; // null if the solver failed
+		final String error;
+
+		Entry(long[] key, Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result, String error)
+		{
+			this.key = key;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<Long, Entry> entries;
+	private long hits, misses, evictions;
+
+	public PathCache(int capacity)
+	{
+		this.capacity = capacity;
+		// access order, so iteration starts at the least recently used entry
+		this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<Long, PathCache.Entry> eldest)
+			{
+				if (size() <= PathCache.this.capacity)
+					return false;
+				++evictions;
+				return true;
+			}
+		};
+	}
+
+	// counters
+	public synchronized long hits() { return hits; }
+	public synchronized long misses() { return misses; }
+	public synchronized long evictions() { return evictions; }
+	public synchronized int size() { return entries.size(); }
+
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	// the cached result of <algorithm> for the tickets and blocks of <model>, running <solver> on a miss
+	// (the solver runs outside the lock, so a slow solve doesn't hold up other queries)
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> get(String algorithm, SessionSnapshot model, Solver solver) throws Exception
+	{
+		long[] key = canonicalKey(algorithm, model);
+		long hash = hash(key);
+		synchronized (this)
+		{
+			Entry entry = entries.get(hash);
+			if (entry != null && Arrays.equals(entry.key, key))
+			{
+				++hits;
+				if (entry.result == null)
+					throw new Exception(entry.error);
+				return copy(entry.result);
+			}
+			++misses;
+		}
+
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result;
+		try
+		{
+			result = solver.solve();
+		} catch (Exception ex) {
+			if (ex.getMessage() == null || !ex.getMessage().contains("Unable to connect"))
+				throw ex; // not a property of the tickets and blocks, don't remember it
+			synchronized (this)
+			{
+				entries.put(hash, new Entry(key, null, ex.getMessage()));
+			}
+			throw ex;
+		}
+		synchronized (this)
+		{
+			entries.put(hash, new Entry(key, copy(result), null));
+		}
+		return result;
+	}
+
+	// the routes are immutable triples, so copying the list is enough
+	private static Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> copy(Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result)
+	{
+		return new Pair<>(result.first(), new ArrayList<>(result.second()));
+	}
+
+	// algorithm name (length, then chars), ticket routes, a separator, then blocked routes; each route packed as a << 32 | b
+	// ticketSet and blockedRoutes are sorted sets, so equal contents always give the same array
+	static long[] canonicalKey(String algorithm, SessionSnapshot model)
+	{
+		long[] key = new long[1 + algorithm.length() + model.getTicketSet().size() + 1 + model.getBlockedRoutes().size()];
+		int i = 0;
+		key[i++] = algorithm.length();
+		for (int c = 0; c < algorithm.length(); ++c)
+			key[i++] = algorithm.charAt(c);
+		for (Ticket t : model.getTicketSet())
+			key[i++] = ((long) t.aIdx() << 32) | t.bIdx();
+		key[i++] = -1;
+		for (Ticket t : model.getBlockedRoutes())
+			key[i++] = ((long) t.aIdx() << 32) | t.bIdx();
+		return key;
+	}
+
+	// 64-bit mix of every word (splitmix64 finalizer over a running sum)
+	// (not static so that a test can force collisions)
+	long hash(long[] key)
+	{
+		long h = key.length;
+		for (long word : key)
+		{
+			h += 0x9E3779B97F4A7C15L + word;
+			h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+			h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+			h ^= h >>> 31;
+		}
+		return h;
+	}
+}
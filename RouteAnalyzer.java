@@ -0,0 +1,123 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// how badly the current plan suffers if an opponent claims each of its routes
+// every route is tried on its own what-if snapshot (SessionSnapshot.withRouteBlocked), which shares all the rows the
+// block doesn't change and is repaired with IncrementalAPSP instead of a full rebuild; the snapshots are independent,
+// so the routes are evaluated in parallel and the session itself is never touched
+public class RouteAnalyzer
+{
+	public static class RouteRisk implements Comparable<RouteRisk>
+	{
+		public final int a, b;       // the route, a < b
+		public final int weight;     // its length in trains
+		public final int newCost;    // plan cost without it, -1 if some ticket city would be cut off
+		public final int delta;      // how much dearer the plan gets (Integer.MAX_VALUE if cut off)
+		public final Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> newPlan; // null if cut off
+
+		RouteRisk(int a, int b, int weight, int baseCost, Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> newPlan)
+		{
+			this.a = a;
+			this.b = b;
+			this.weight = weight;
+			this.newPlan = newPlan;
+			this.newCost = newPlan == null ? -1 : newPlan.first();
+			this.delta = newPlan == null ? Integer.MAX_VALUE : newPlan.first() - baseCost;
+		}
+
+		public boolean cutsOff() { return newPlan == null; }
+
+		// riskiest first, then by route so equal risks come out in a fixed order
+		public int compareTo(RouteRisk other)
+		{
+			if (delta != other.delta)
+				return Integer.compare(other.delta, delta);
+			return a != other.a ? Integer.compare(a, other.a) : Integer.compare(b, other.b);
+		}
+	}
+
+	private final SessionSnapshot model;
+
+	// <model> must be published with tables (dense mode), like for steinerTreeApprox
+	public RouteAnalyzer(SessionSnapshot model)
+	{
+		this.model = model;
+	}
+
+	public Pair<Integer, ArrayList<RouteRisk>> analyze() throws Exception
+	{
+		return analyze(Runtime.getRuntime().availableProcessors());
+	}
+
+	// the current plan's cost, and one entry per route of the plan, riskiest first
+	// throws if the current plan itself can't connect the cities
+	public Pair<Integer, ArrayList<RouteRisk>> analyze(int parallelism) throws Exception
+	{
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan = model.steinerTreeApprox();
+
+		// step 1: the plan's routes, each once whichever way it was walked
+		TreeSet<Ticket> routes = new TreeSet<>();
+		for (OrderedTriple<Integer, Integer, Integer> route : plan.second())
+			routes.add(new Ticket(model.getMap(), route.first(), route.second()));
+
+		// step 2: block each on its own snapshot and re-plan, in parallel
+		ArrayList<Ticket> routeList = new ArrayList<>(routes);
+		RouteRisk[] risks = new RouteRisk[routeList.size()];
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try
+		{
+			pool.invoke(new RiskTask(routeList, risks, plan.first(), 0, routeList.size()));
+		} finally {
+			pool.shutdown();
+		}
+
+		// step 3: rank
+		ArrayList<RouteRisk> ranked = new ArrayList<>(Arrays.asList(risks));
+		Collections.sort(ranked);
+		return new Pair<>(plan.first(), ranked);
+	}
+
+	private RouteRisk evaluate(Ticket route, int baseCost)
+	{
+		int a = route.aIdx(), b = route.bIdx();
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> newPlan;
+		try
+		{
+			newPlan = model.withRouteBlocked(a, b).steinerTreeApprox();
+		} catch (Exception ex) {
+			newPlan = null; // the only way to some ticket city goes through this route
+		}
+		return new RouteRisk(a, b, model.edgeWeight(a, b), baseCost, newPlan);
+	}
+
+	private class RiskTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final ArrayList<Ticket> routes;
+		private final RouteRisk[] risks;
+		private final int baseCost;
+		private final int from, to;
+
+		RiskTask(ArrayList<Ticket> routes, RouteRisk[] risks, int baseCost, int from, int to)
+		{
+			this.routes = routes;
+			this.risks = risks;
+			this.baseCost = baseCost;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			// one route is a whole repair plus a solve, worth a task of its own
+			if (to - from <= 1)
+			{
+				for (int i = from; i < to; ++i)
+					risks[i] = evaluate(routes.get(i), baseCost);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RiskTask(routes, risks, baseCost, from, mid), new RiskTask(routes, risks, baseCost, mid, to));
+		}
+	}
+}
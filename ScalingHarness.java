@@ -0,0 +1,177 @@
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+
+// runs the whole pipeline on generated maps of growing size (see MapGenerator), in dense and sparse mode,
+// and reports wall time, bytes allocated, allocation rate and peak heap for every phase
+// usage: java ScalingHarness [-sizes 100,1000,...] [-tickets k] [-dense-limit n] [-seed s]
+//
+// phases: load (parse the map), apsp (dense: Floyd-Warshall; sparse: trees from every ticket city), live (publishing
+// the tickets, which builds the session's live approximate tree, see IncrementalSteiner), approx / mehlhorn / exact
+// (Steiner trees over the ticket cities; approx is the solver itself, not the live tree), replay (block then unblock
+// every route of the approximate tree, publishing after each change)
+// dense mode is skipped past -dense-limit cities, or when its three n*n tables can't fit in the heap
+public class ScalingHarness
+{
+	private static final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+	private static long sink;
+
+	private interface Phase
+	{
+		void run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int[] sizes = { 100, 1000, 2000, 5000, 20000, 100000 };
+		int tickets = 6;
+		int denseLimit = 2000;
+		long seed = 42;
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-sizes"))
+				sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+			else if (args[i].equals("-tickets"))
+				tickets = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-dense-limit"))
+				denseLimit = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(args[i + 1]);
+		}
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				heapPools.add(pool);
+
+		System.out.printf("max heap %d MB, %d tickets per map%n", Runtime.getRuntime().maxMemory() >> 20, tickets);
+		System.out.printf("%8s %-6s %-9s %11s %11s %10s %10s%n", "cities", "mode", "phase", "ms", "alloc MB", "MB/s", "peak MB");
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+		for (int n : sizes)
+		{
+			File file = new File(tmpDir, String.format("t2r-scale-%d.txt", n));
+			MapGenerator.generate(n, seed, file);
+			file.deleteOnExit();
+
+			long tableBytes = 3L * 4 * n * n; // adjMat, apsp, path
+			if (n > denseLimit)
+				System.out.printf("%8d %-6s skipped (over -dense-limit %d)%n", n, "dense", denseLimit);
+			else if (tableBytes > Runtime.getRuntime().maxMemory())
+				System.out.printf("%8d %-6s skipped (tables need %d MB)%n", n, "dense", tableBytes >> 20);
+			else
+				runMap(file, n, false, tickets, seed);
+			runMap(file, n, true, tickets, seed);
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	private static void runMap(File file, int n, boolean sparse, int tickets, long seed) throws Exception
+	{
+		String mode = sparse ? "sparse" : "dense";
+		GameMap[] map = new GameMap[1];
+		Ticket2Ride[] session = new Ticket2Ride[1];
+		try
+		{
+			phase(n, mode, "load", () -> map[0] = GameMap.load(file.getPath(), sparse));
+
+			// chain random cities together with tickets so they all become terminals
+			session[0] = new Ticket2Ride(map[0]);
+			Random rnd = new Random(seed);
+			TreeSet<Integer> ticketCities = new TreeSet<>();
+			int prev = rnd.nextInt(n);
+			for (int i = 1; i < Math.min(tickets, n); ++i)
+			{
+				int next = rnd.nextInt(n);
+				if (next != prev)
+				{
+					try
+					{
+						session[0].addTicket(map[0].getCities().name(prev), map[0].getCities().name(next));
+						ticketCities.add(prev);
+						ticketCities.add(next);
+					} catch (Exception ex) {
+						// duplicate ticket, fewer terminals is fine
+					}
+				}
+				prev = next;
+			}
+
+			// the tables (or trees) alone: publishing would also build the live tree, which is timed next
+			phase(n, mode, "apsp", () ->
+			{
+				if (sparse)
+				{
+					// the unpublished snapshot shares its trees with the next one, the graph being the same
+					SessionSnapshot snapshot = session[0].snapshot();
+					for (int t : ticketCities)
+						sink += snapshot.distance(ticketCities.first(), t);
+				}
+				else
+				{
+					map[0].buildAPSP();
+					for (int t : ticketCities)
+						sink += map[0].getBaseTable().distance(ticketCities.first(), t);
+				}
+			});
+			phase(n, mode, "live", () ->
+			{
+				session[0].buildAPSP();
+				sink += session[0].snapshot().getVersion();
+			});
+
+			ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> tree = new ArrayList<>();
+			phase(n, mode, "approx", () -> tree.add(session[0].snapshot().steinerTreeApprox()));
+			phase(n, mode, "mehlhorn", () -> sink += session[0].steinerTreeMehlhorn().first());
+			phase(n, mode, "exact", () -> sink += session[0].steinerTreeExact().first());
+
+			// the tree may list a route once in each direction, block it once
+			TreeSet<Ticket> routes = new TreeSet<>();
+			for (OrderedTriple<Integer, Integer, Integer> route : tree.get(0).second())
+				routes.add(new Ticket(map[0], route.first(), route.second()));
+			phase(n, mode, "replay", () ->
+			{
+				for (boolean block : new boolean[] { true, false })
+				{
+					for (Ticket route : routes)
+					{
+						session[0].blockRoute(block, route.aCity(), route.bCity());
+						session[0].buildAPSP();
+						sink += session[0].snapshot().getVersion();
+					}
+				}
+			});
+		} catch (OutOfMemoryError err) {
+			// this is the size where the mode falls over; report it and keep going with the rest
+			map[0] = null;
+			session[0] = null;
+			System.out.printf("%8d %-6s out of memory%n", n, mode);
+		}
+	}
+
+	private static void phase(int n, String mode, String name, Phase phase) throws Exception
+	{
+		System.gc();
+		for (MemoryPoolMXBean pool : heapPools)
+			pool.resetPeakUsage();
+		long allocStart = allocatedBytes();
+		long start = System.nanoTime();
+		phase.run();
+		long nanos = System.nanoTime() - start;
+		long alloc = allocStart < 0 ? -1 : allocatedBytes() - allocStart;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heapPools)
+			peak += pool.getPeakUsage().getUsed();
+
+		double ms = nanos / 1e6;
+		System.out.printf("%8d %-6s %-9s %11.1f %11.1f %10.1f %10d%n", n, mode, name, ms, alloc / 1048576.0,
+						  alloc < 0 ? -1 : alloc / 1048576.0 / Math.max(ms / 1000, 1e-9), peak >> 20);
+	}
+
+	// bytes this thread has allocated so far, or -1 where the JVM doesn't say
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
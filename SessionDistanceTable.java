@@ -0,0 +1,115 @@
+// one session's shortest path tables: the map's base tables, with the rows its blocked routes changed laid on top
+// a changed row is an int[] of distances and char[]s of next hops and Floyd-Warshall pivots (hop + 1 and via + 1,
+// 0 for none, as in CompactDistanceTable); every other row is read straight from the base, so a session costs 8n
+// bytes per changed row and nothing per untouched one, and the base is never unpacked into int[n][n] arrays
+// rows are copy-on-write: copy() shares every row with the table it came from, and a row is copied on its first
+// write; a table handed to a SessionSnapshot is never written again
+class SessionDistanceTable implements DistanceTable
+{
+	private final DistanceTable base;
+	private final int[][] dist;    // by row, null where the base row stands
+	private final char[][] hops;
+	private final char[][] vias;
+	private final boolean[] owned; // rows this table may write to
+
+	SessionDistanceTable(DistanceTable base)
+	{
+		int n = base.size();
+		if (n > Character.MAX_VALUE - 1)
+			throw new IllegalArgumentException(String.format("Too many cities for session tables (%d)", n));
+		this.base = base;
+		this.dist = new int[n][];
+		this.hops = new char[n][];
+		this.vias = new char[n][];
+		this.owned = new boolean[n];
+	}
+
+	private SessionDistanceTable(SessionDistanceTable other)
+	{
+		this.base = other.base;
+		this.dist = other.dist.clone();
+		this.hops = other.hops.clone();
+		this.vias = other.vias.clone();
+		this.owned = new boolean[dist.length];
+	}
+
+	// a table to repair, starting from <table> (a session's tables or the map's own), which stays as it is
+	static SessionDistanceTable over(DistanceTable table)
+	{
+		return table instanceof SessionDistanceTable ? new SessionDistanceTable((SessionDistanceTable) table) : new SessionDistanceTable(table);
+	}
+
+	public int size() { return dist.length; }
+
+	public int distance(int u, int v)
+	{
+		int[] row = dist[u];
+		return row != null ? row[v] : base.distance(u, v);
+	}
+
+	public int nextHop(int u, int v)
+	{
+		char[] row = hops[u];
+		return row != null ? row[v] - 1 : base.nextHop(u, v);
+	}
+
+	public int via(int u, int v)
+	{
+		char[] row = vias[u];
+		return row != null ? row[v] - 1 : base.via(u, v);
+	}
+
+	void setDistance(int u, int v, int d)
+	{
+		own(u);
+		dist[u][v] = d;
+	}
+
+	void setHop(int u, int v, int hop, int via)
+	{
+		own(u);
+		hops[u][v] = (char) (hop + 1);
+		vias[u][v] = (char) (via + 1);
+	}
+
+	// rows that differ from the base's (SessionLog snapshots store only these)
+	boolean changed(int u) { return dist[u] != null; }
+	int[] distRow(int u) { return dist[u]; }
+	char[] hopRow(int u) { return hops[u]; }
+	char[] viaRow(int u) { return vias[u]; }
+
+	// takes the arrays given as row u (a fresh table being restored from a SessionLog snapshot)
+	void setRow(int u, int[] d, char[] hop, char[] via)
+	{
+		dist[u] = d;
+		hops[u] = hop;
+		vias[u] = via;
+		owned[u] = true;
+	}
+
+	private void own(int u)
+	{
+		if (owned[u])
+			return;
+		int n = dist.length;
+		if (dist[u] != null)
+		{
+			dist[u] = dist[u].clone();
+			hops[u] = hops[u].clone();
+			vias[u] = vias[u].clone();
+		}
+		else
+		{
+			dist[u] = new int[n];
+			hops[u] = new char[n];
+			vias[u] = new char[n];
+			for (int v = 0; v < n; ++v)
+			{
+				dist[u][v] = base.distance(u, v);
+				hops[u][v] = (char) (base.nextHop(u, v) + 1);
+				vias[u][v] = (char) (base.via(u, v) + 1);
+			}
+		}
+		owned[u] = true;
+	}
+}
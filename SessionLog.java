@@ -0,0 +1,499 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// crash recovery for one game session: every change to the model (add/remove ticket, block/unblock, reset) is
+// appended to a binary log as it happens, and every so often the published state is written out whole as a snapshot,
+// shortest path tables included; reopening the log loads the latest snapshot and replays only the records after it,
+// so recovery costs the same whether the game ran for ten commands or ten thousand
+// usage:
+//   SessionLog log = SessionLog.open("game.log", session); // recovers whatever game.log holds, then logs to it
+//   ...
+//   log.close();                                            // on a clean exit: final snapshot
+//
+// log file layout (big-endian):
+//   int magic, int version, long map fingerprint, long log id (random, ties snapshots to this log)
+//   then records of RECORD bytes: byte type, int a, int b, int points, int CRC32 of the 13 bytes before
+// a crash can leave a torn record at the end; replay stops at the first record that doesn't check out and the
+// file is cut back to there
+// snapshot file (<log>.snap, replaced atomically):
+//   int magic, int version, long map fingerprint, long log id, long log offset it covers
+//   int nTickets, nTickets x (int a, int b, int points), int nBlocked, nBlocked x (int a, int b)
+//   int hasTables, if so int nRows, nRows x (int row, int[n] distances, char[n] next hops + 1, char[n] vias + 1): only
+//   the rows the blocked routes changed (see SessionDistanceTable), the rest come back from the map's own tables
+//   long CRC32 of everything before
+//
+// group commit: appending only copies the record into a buffer (writers never wait on the disk); a daemon thread
+// writes the buffer out and fsyncs once every COMMIT_MILLIS for everything appended meanwhile, and commit() does the
+// same on demand, concurrent callers sharing one fsync; so a crash loses at most the last COMMIT_MILLIS of changes
+public class SessionLog
+{
+	private static final int LOG_MAGIC = 0x5432524C;  // "T2RL"
+	private static final int SNAP_MAGIC = 0x54325253; // "T2RS"
+	private static final int FORMAT_VERSION = 1;
+	private static final int SNAP_VERSION = 3;        // snapshots of another version are ignored (the log is replayed)
+	private static final int HEADER = 24;
+	static final int RECORD = 17;
+	private static final long COMMIT_MILLIS = 10;
+	private static final int SNAPSHOT_EVERY = 256;    // records between snapshots
+
+	// record types
+	static final byte ADD = 1;
+	static final byte REMOVE = 2;
+	static final byte BLOCK = 3;
+	static final byte UNBLOCK = 4;
+	static final byte RESET = 5;
+
+	private final Ticket2Ride session;
+	private final String logFile;
+	private final String snapFile;
+	private final FileChannel channel;
+	private final long fingerprint;
+	private final long logId;
+	private final CRC32 crc = new CRC32(); // for append, guarded by <this>
+
+	// guarded by <this>
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+	private long written;          // bytes handed to the channel
+	private long snapshotAt;       // log offset the latest snapshot covers
+	private boolean snapshotting = false;
+	private IOException failure;   // from the background threads, rethrown by commit/close
+
+	// guarded by <commitLock>
+	private final Object commitLock = new Object();
+	private long durable;          // bytes forced to disk
+
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(SessionLog::daemon);
+	private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(SessionLog::daemon);
+
+	// what open() found
+	private boolean fromSnapshot = false;
+	private int replayed = 0;
+	private double recoveryMillis;
+
+	private SessionLog(Ticket2Ride session, String logFile, FileChannel channel, long fingerprint, long logId)
+	{
+		this.session = session;
+		this.logFile = logFile;
+		this.snapFile = logFile + ".snap";
+		this.channel = channel;
+		this.fingerprint = fingerprint;
+		this.logId = logId;
+	}
+
+	private static Thread daemon(Runnable r)
+	{
+		Thread t = new Thread(r, "session-log");
+		t.setDaemon(true);
+		return t;
+	}
+
+	// brings <session> (fresh, nothing added yet) up to the state <logFile> records, creating the log if there is
+	// none, and logs every change from then on
+	public static SessionLog open(String logFile, Ticket2Ride session) throws IOException
+	{
+		Metrics.Sample sample = Metrics.start("recoverSession");
+		long start = System.nanoTime();
+		long fingerprint = fingerprint(session.getMap());
+		FileChannel channel = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try
+		{
+			SessionLog log;
+			if (channel.size() < HEADER)
+			{
+				// new log (or one that never got past its header)
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				header.putInt(LOG_MAGIC).putInt(FORMAT_VERSION).putLong(fingerprint).putLong(new Random().nextLong()).flip();
+				channel.truncate(0);
+				while (header.hasRemaining())
+					channel.write(header, HEADER - header.remaining());
+				channel.force(true);
+				log = new SessionLog(session, logFile, channel, fingerprint, header.getLong(16));
+				log.written = HEADER;
+				log.snapshotAt = HEADER;
+			}
+			else
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+					;
+				header.flip();
+				if (header.getInt() != LOG_MAGIC || header.getInt() != FORMAT_VERSION)
+					throw new IOException(String.format("%s is not a session log", logFile));
+				if (header.getLong() != fingerprint)
+					throw new IOException(String.format("%s was written for a different map", logFile));
+				log = new SessionLog(session, logFile, channel, fingerprint, header.getLong());
+				log.recover();
+			}
+			log.durable = log.written;
+			session.attachLog(log);
+			log.flusher.scheduleWithFixedDelay(log::flushQuietly, COMMIT_MILLIS, COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+			log.recoveryMillis = (System.nanoTime() - start) / 1e6;
+			return log;
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		} finally {
+			sample.stop();
+		}
+	}
+
+	// step 1: the latest snapshot, if it belongs to this log and checks out; step 2: the records after it
+	private void recover() throws IOException
+	{
+		long from = HEADER;
+		long size = channel.size();
+		Snapshot snap = readSnapshot();
+		if (snap != null && snap.logOffset <= size && (snap.logOffset - HEADER) % RECORD == 0)
+		{
+			session.restore(snap.tickets, snap.blocked, snap.table);
+			from = snap.logOffset;
+			fromSnapshot = true;
+		}
+		snapshotAt = from;
+
+		long end = from;
+		if (size > from)
+		{
+			// read, not mapped: a mapped file can't be truncated (or later replaced) on every platform
+			ByteBuffer buf = readFully(channel, from, size - from);
+			byte[] record = new byte[RECORD - 4];
+			CRC32 check = new CRC32();
+			while (buf.remaining() >= RECORD)
+			{
+				buf.get(record);
+				int sum = buf.getInt();
+				check.reset();
+				check.update(record, 0, record.length);
+				if ((int) check.getValue() != sum)
+					break; // torn write from a crash
+				ByteBuffer r = ByteBuffer.wrap(record);
+				apply(r.get(), r.getInt(), r.getInt(), r.getInt(), end);
+				end += RECORD;
+				++replayed;
+			}
+		}
+		if (end < size)
+			channel.truncate(end);
+		written = end;
+	}
+
+	private void apply(byte type, int a, int b, int points, long offset) throws IOException
+	{
+		CityIndex cities = session.getCities();
+		try
+		{
+			switch (type)
+			{
+				case ADD:
+					session.addTicket(cities.name(a), cities.name(b), points);
+					break;
+				case REMOVE:
+					session.removeTicket(cities.name(a), cities.name(b));
+					break;
+				case BLOCK:
+				case UNBLOCK:
+					session.blockRoute(type == BLOCK, cities.name(a), cities.name(b));
+					break;
+				case RESET:
+					session.resetModel();
+					break;
+				default:
+					throw new Exception("unknown record type " + type);
+			}
+		} catch (Exception ex) {
+			throw new IOException(String.format("%s is corrupt at offset %d (%s)", logFile, offset, ex.getMessage()));
+		}
+	}
+
+	// called by the session, under its lock, right after each change it makes
+	synchronized void append(byte type, int a, int b, int points)
+	{
+		if (buffer.remaining() < RECORD)
+		{
+			// the flusher fell behind; grow rather than make the writer wait on the disk
+			ByteBuffer bigger = ByteBuffer.allocate(2 * buffer.capacity());
+			buffer.flip();
+			buffer = bigger.put(buffer);
+		}
+		int start = buffer.position();
+		buffer.put(type).putInt(a).putInt(b).putInt(points);
+		crc.reset();
+		crc.update(buffer.array(), start, RECORD - 4);
+		buffer.putInt((int) crc.getValue());
+		Metrics.increment("log.records");
+	}
+
+	// called by the session, under its lock, with each snapshot it publishes: every SNAPSHOT_EVERY records one of
+	// them is written out in the background (it is immutable, so the session carries on meanwhile)
+	synchronized void published(SessionSnapshot snapshot)
+	{
+		long at = written + buffer.position();
+		if (snapshotting || at - snapshotAt < (long) SNAPSHOT_EVERY * RECORD)
+			return;
+		snapshotting = true;
+		snapshotter.execute(() ->
+		{
+			try
+			{
+				writeSnapshot(snapshot, at);
+			} catch (IOException ex) {
+				fail(ex);
+			} finally {
+				synchronized (this)
+				{
+					snapshotting = false;
+				}
+			}
+		});
+	}
+
+	// makes everything appended so far durable; callers arriving while another fsync runs wait for it and then
+	// usually find their records already covered
+	public void commit() throws IOException
+	{
+		long target;
+		synchronized (this)
+		{
+			if (failure != null)
+				throw failure;
+			target = written + buffer.position();
+		}
+		synchronized (commitLock)
+		{
+			if (durable >= target)
+				return;
+			long upTo;
+			synchronized (this)
+			{
+				// the write only copies into the page cache; the fsync below runs without holding up appends
+				buffer.flip();
+				while (buffer.hasRemaining())
+					written += channel.write(buffer, written);
+				buffer.clear();
+				upTo = written;
+			}
+			channel.force(false);
+			durable = upTo;
+			Metrics.increment("log.fsyncs");
+		}
+	}
+
+	private void flushQuietly()
+	{
+		try
+		{
+			commit();
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	private synchronized void fail(IOException ex)
+	{
+		if (failure == null)
+			failure = ex;
+	}
+
+	// stops logging: a final snapshot of the session as it stands, so the next open replays nothing
+	public void close() throws IOException
+	{
+		session.attachLog(null);
+		SessionSnapshot last = session.publish();
+		flusher.shutdown();
+		snapshotter.shutdown();
+		try
+		{
+			snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+			commit();
+			long at;
+			synchronized (this)
+			{
+				at = written;
+			}
+			if (at > snapshotAt)
+				writeSnapshot(last, at);
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException("Interrupted while closing " + logFile);
+		} finally {
+			channel.close();
+		}
+	}
+
+	// what open() did, for the caller to report
+	public boolean recoveredFromSnapshot() { return fromSnapshot; }
+	public int replayedRecords() { return replayed; }
+	public double recoveryMillis() { return recoveryMillis; }
+
+	// <snapshot> is the session's state once the first <logOffset> bytes of the log are applied; the log has to be
+	// durable up to there first, or a crash could leave a snapshot ahead of its log
+	private void writeSnapshot(SessionSnapshot snapshot, long logOffset) throws IOException
+	{
+		Metrics.Sample sample = Metrics.start("writeSnapshot");
+		try
+		{
+			commit();
+			DistanceTable table = snapshot.isSparseMode() ? null : snapshot.getTable();
+			SessionDistanceTable changed = table instanceof SessionDistanceTable ? (SessionDistanceTable) table : null;
+			int n = snapshot.getMap().size();
+			int rows = 0;
+			for (int i = 0; changed != null && i < n; ++i)
+				if (changed.changed(i))
+					++rows;
+			if (table != null && 8L * n * rows > Integer.MAX_VALUE - (1 << 20))
+				table = null; // too big to read back in one piece, recovery rebuilds them instead
+
+			Path tmp = Paths.get(snapFile + ".tmp");
+			try (FileOutputStream file = new FileOutputStream(tmp.toFile()))
+			{
+				CRC32 sum = new CRC32();
+				DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), sum));
+				out.writeInt(SNAP_MAGIC);
+				out.writeInt(SNAP_VERSION);
+				out.writeLong(fingerprint);
+				out.writeLong(logId);
+				out.writeLong(logOffset);
+				out.writeInt(snapshot.getTicketSet().size());
+				for (Ticket t : snapshot.getTicketSet())
+				{
+					out.writeInt(t.aIdx());
+					out.writeInt(t.bIdx());
+					out.writeInt(t.points());
+				}
+				out.writeInt(snapshot.getBlockedRoutes().size());
+				for (Ticket route : snapshot.getBlockedRoutes())
+				{
+					out.writeInt(route.aIdx());
+					out.writeInt(route.bIdx());
+				}
+				out.writeInt(table != null ? 1 : 0);
+				if (table != null)
+				{
+					out.writeInt(rows);
+					for (int i = 0; rows > 0 && i < n; ++i)
+					{
+						if (!changed.changed(i))
+							continue;
+						out.writeInt(i);
+						for (int d : changed.distRow(i))
+							out.writeInt(d);
+						for (char hop : changed.hopRow(i))
+							out.writeChar(hop);
+						for (char via : changed.viaRow(i))
+							out.writeChar(via);
+					}
+				}
+				out.flush();
+				new DataOutputStream(file).writeLong(sum.getValue());
+				file.getChannel().force(true);
+			}
+			Files.move(tmp, Paths.get(snapFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this)
+			{
+				snapshotAt = Math.max(snapshotAt, logOffset);
+			}
+			Metrics.increment("log.snapshots");
+		} finally {
+			sample.stop();
+		}
+	}
+
+	private static class Snapshot
+	{
+		long logOffset;
+		ArrayList<Ticket> tickets = new ArrayList<>();
+		ArrayList<Ticket> blocked = new ArrayList<>();
+		DistanceTable table;
+	}
+
+	// the snapshot next to the log, or null if there is none, it's for another log, or it doesn't check out
+	// (a snapshot is only ever a shortcut: without one the whole log is replayed)
+	private Snapshot readSnapshot() throws IOException
+	{
+		Path path = Paths.get(snapFile);
+		if (!Files.isRegularFile(path))
+			return null;
+		GameMap map = session.getMap();
+		try (FileChannel snapChannel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = snapChannel.size();
+			if (size < 48 || size > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer buf = readFully(snapChannel, 0, size);
+			CRC32 sum = new CRC32();
+			ByteBuffer body = buf.duplicate();
+			body.limit((int) size - 8);
+			sum.update(body);
+			if (buf.getLong((int) size - 8) != sum.getValue())
+				return null;
+			if (buf.getInt() != SNAP_MAGIC || buf.getInt() != SNAP_VERSION || buf.getLong() != fingerprint || buf.getLong() != logId)
+				return null;
+
+			Snapshot snap = new Snapshot();
+			snap.logOffset = buf.getLong();
+			int nTickets = buf.getInt();
+			for (int i = 0; i < nTickets; ++i)
+			{
+				int a = buf.getInt(), b = buf.getInt(), points = buf.getInt();
+				snap.tickets.add(new Ticket(map, a, b, points));
+			}
+			int nBlocked = buf.getInt();
+			for (int i = 0; i < nBlocked; ++i)
+				snap.blocked.add(new Ticket(map, buf.getInt(), buf.getInt()));
+			if (buf.getInt() != 0 && !map.isSparse())
+			{
+				int n = map.size();
+				int rows = buf.getInt();
+				SessionDistanceTable table = new SessionDistanceTable(map.getBaseTable());
+				for (int r = 0; r < rows; ++r)
+				{
+					int i = buf.getInt();
+					int[] dist = new int[n];
+					char[] hops = new char[n];
+					char[] vias = new char[n];
+					buf.asIntBuffer().get(dist);
+					buf.position(buf.position() + 4 * n);
+					buf.asCharBuffer().get(hops);
+					buf.position(buf.position() + 2 * n);
+					buf.asCharBuffer().get(vias);
+					buf.position(buf.position() + 2 * n);
+					table.setRow(i, dist, hops, vias);
+				}
+				snap.table = rows == 0 ? map.getBaseTable() : table;
+			}
+			return snap;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+			return null;
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long from, long length) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate((int) length);
+		while (buf.hasRemaining() && channel.read(buf, from + buf.position()) >= 0)
+			;
+		buf.flip();
+		return buf;
+	}
+
+	// CRC32 over the city names and routes, so a log is never replayed against a different map
+	static long fingerprint(GameMap map) throws IOException
+	{
+		CRC32 sum = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(OutputStream.nullOutputStream(), sum));
+		out.writeInt(map.size());
+		for (int i = 0; i < map.size(); ++i)
+			out.writeUTF(map.getCities().name(i));
+		SparseGraph graph = map.getGraph();
+		for (int[] values : new int[][] { graph.offsets(), graph.targets(), graph.weights() })
+			for (int v : values)
+				out.writeInt(v);
+		out.flush();
+		return sum.getValue();
+	}
+}
@@ -0,0 +1,169 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// immutable, versioned state of one game session as published by Ticket2Ride
+// readers on any thread may hold on to a snapshot and query it without locks; nothing in it is ever written again
+// (table rows are shared with older snapshots and the map, which is safe because nobody writes to a published row)
+public class SessionSnapshot
+{
+	private static final ThreadLocal<SteinerApprox> approxScratch = ThreadLocal.withInitial(SteinerApprox::new);
+	private static final ThreadLocal<SteinerMehlhorn> mehlhornScratch = ThreadLocal.withInitial(SteinerMehlhorn::new);
+
+	private final GameMap map;
+	private final long version;
+	private final SortedSet<Ticket> ticketSet;
+	private final SortedMap<Integer, Integer> cityUsages;
+	private final SortedSet<Ticket> blockedRoutes;
+	private final int[][] adjMat; // null in sparse mode
+	private final DistanceTable table; // null until a snapshot is published with tables (and always in sparse mode)
+	private final SparseGraph graph;
+	// sparse mode: shortest path trees, grown on first use (a pure function of <graph>, so safe to memoize concurrently)
+	private final ConcurrentHashMap<Integer, ShortestPathTree> trees;
+
+	SessionSnapshot(GameMap map, long version, TreeSet<Ticket> ticketSet, TreeMap<Integer, Integer> cityUsages, TreeSet<Ticket> blockedRoutes,
+					int[][] adjMat, DistanceTable table, SparseGraph graph, ConcurrentHashMap<Integer, ShortestPathTree> trees)
+	{
+		this.map = map;
+		this.version = version;
+		this.ticketSet = Collections.unmodifiableSortedSet(new TreeSet<>(ticketSet));
+		this.cityUsages = Collections.unmodifiableSortedMap(new TreeMap<>(cityUsages));
+		this.blockedRoutes = Collections.unmodifiableSortedSet(new TreeSet<>(blockedRoutes));
+		this.adjMat = adjMat;
+		this.table = table;
+		this.graph = graph;
+		this.trees = trees;
+	}
+
+	// getter methods
+	public GameMap getMap() { return map; }
+	public long getVersion() { return version; }
+	public SortedSet<Ticket> getTicketSet() { return ticketSet; }
+	public SortedMap<Integer, Integer> getCityUsages() { return cityUsages; }
+	public SortedSet<Ticket> getBlockedRoutes() { return blockedRoutes; }
+	public int[][] getAdjMat() { return adjMat; }
+	public DistanceTable getTable() { return table; }
+	public SparseGraph getGraph() { return graph; }
+	public boolean isSparseMode() { return map.isSparse(); }
+	public boolean hasTables() { return table != null || isSparseMode(); }
+	ConcurrentHashMap<Integer, ShortestPathTree> getTrees() { return trees; }
+
+	// shortest distance from u to v
+	// in sparse mode this reuses a tree from either end, otherwise grows one from u
+	public int distance(int u, int v)
+	{
+		if (!isSparseMode())
+			return table.distance(u, v);
+		ShortestPathTree tree = trees.get(v);
+		return tree != null ? tree.dist[u] : tree(u).dist[v];
+	}
+
+	// next city after u on the shortest path from u to v
+	public int nextHop(int u, int v)
+	{
+		if (!isSparseMode())
+			return table.nextHop(u, v);
+		return tree(v).parent[u];
+	}
+
+	public int edgeWeight(int u, int v)
+	{
+		return isSparseMode() ? graph.weight(u, v) : adjMat[u][v];
+	}
+
+	// what-if copy of this snapshot with route a-b blocked too; never published, so its version is -1
+	// shares every row it doesn't change, like Ticket2Ride.publish
+	SessionSnapshot withRouteBlocked(int a, int b)
+	{
+		int oldW = graph.weight(a, b);
+		int newW = oldW + 1000000;
+		SparseGraph blockedGraph = graph.copy();
+		blockedGraph.setWeight(a, b, newW);
+		int[][] blockedAdjMat = adjMat;
+		DistanceTable blockedTable = table;
+		if (adjMat != null)
+		{
+			boolean[] owned = new boolean[adjMat.length];
+			blockedAdjMat = adjMat.clone();
+			Ticket2Ride.ownRow(blockedAdjMat, owned, a);
+			Ticket2Ride.ownRow(blockedAdjMat, owned, b);
+			blockedAdjMat[a][b] = newW;
+			blockedAdjMat[b][a] = newW;
+			if (table != null)
+			{
+				SessionDistanceTable repaired = SessionDistanceTable.over(table);
+				IncrementalAPSP.edgeIncreased(blockedAdjMat, repaired, a, b, oldW);
+				blockedTable = repaired;
+			}
+		}
+		TreeSet<Ticket> blocked = new TreeSet<>(blockedRoutes);
+		blocked.add(new Ticket(map, a, b));
+		return new SessionSnapshot(map, -1, new TreeSet<>(ticketSet), new TreeMap<>(cityUsages), blocked,
+								   blockedAdjMat, blockedTable, blockedGraph, new ConcurrentHashMap<>());
+	}
+
+	// what-if copy of this snapshot with other tickets (same routes, blocks and tables); never published, version -1
+	SessionSnapshot withTickets(TreeSet<Ticket> tickets, TreeMap<Integer, Integer> usages)
+	{
+		return new SessionSnapshot(map, -1, tickets, usages, new TreeSet<>(blockedRoutes), adjMat, table, graph, trees);
+	}
+
+	private ShortestPathTree tree(int city)
+	{
+		return trees.computeIfAbsent(city, graph::dijkstra);
+	}
+
+	// ticket cities in ascending order
+	public int[] terminals()
+	{
+		int[] terminals = new int[cityUsages.size()];
+		int i = 0;
+		for (int city : cityUsages.keySet())
+			terminals[i++] = city;
+		return terminals;
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeApprox() throws Exception
+	{
+		// minimum spanning tree: shortest path to connect all cities
+		// actually NP-hard Steiner Tree problem
+		// will use 2-approximation technique to solve (see SteinerApprox)
+		SteinerApprox approx = approxScratch.get();
+		int cost = approx.solve(this, terminals(), cityUsages.size());
+		if (cost < 0)
+			throw new Exception("Unable to connect all cities");
+
+		// return cost and routes to claim
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>(approx.routeCount());
+		for (int i = 0; i < approx.routeCount(); ++i)
+			routes.add(new OrderedTriple<>(approx.routeFrom(i), approx.routeTo(i), 0));
+		return new Pair<>(cost, routes);
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeMehlhorn() throws Exception
+	{
+		// same 2-approximation guarantee, but from one Dijkstra over the map with blocked routes left out,
+		// so it needs no tables and nothing has to be rebuilt after a block (see SteinerMehlhorn)
+		SteinerMehlhorn mehlhorn = mehlhornScratch.get();
+		int cost = mehlhorn.solve(this, terminals(), cityUsages.size());
+		if (cost < 0)
+			throw new Exception("Unable to connect all cities");
+
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>(mehlhorn.routeCount());
+		for (int i = 0; i < mehlhorn.routeCount(); ++i)
+			routes.add(new OrderedTriple<>(mehlhorn.routeFrom(i), mehlhorn.routeTo(i), 0));
+		return new Pair<>(cost, routes);
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeExact(int parallelism) throws Exception
+	{
+		// exact Steiner tree over the ticket cities, exponential in their count only
+		return new SteinerExact(this, terminals(), parallelism).solve();
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> modifiedTSP(long budgetMillis) throws Exception
+	{
+		// (modified) traveling salesman: one continuous route through every ticket city, no return to the start
+		// exact for up to ModifiedTSP.MAX_EXACT cities, otherwise a heuristic limited to <budgetMillis>
+		return new ModifiedTSP(this, terminals(), budgetMillis).solve();
+	}
+}
@@ -0,0 +1,15 @@
+// one Dijkstra run out of <source> (see SparseGraph.dijkstra): the distance to every city, and each city's next step
+// back towards <source> (-1 for the source itself and for cities it can't reach)
+class ShortestPathTree
+{
+	final int source;
+	final int[] dist;
+	final int[] parent;
+
+	ShortestPathTree(int source, int n)
+	{
+		this.source = source;
+		this.dist = new int[n];
+		this.parent = new int[n];
+	}
+}
@@ -0,0 +1,43 @@
+import jdk.jfr.*;
+
+// JFR event around one phase of a solver run or table build, so a flight recording shows where a slow query went
+// (e.g. java -XX:StartFlightRecording=filename=t2r.jfr CLI, then "jfr print --events t2r.SolverPhase t2r.jfr")
+// costs next to nothing while no recording has the event enabled: begin() then hands out null instead of an event,
+// so the solvers' hot paths (SteinerApprox under HandEvaluator) stay allocation-free
+@Name("t2r.SolverPhase")
+@Label("Solver Phase")
+@Category("Ticket to Ride")
+@StackTrace(false)
+public class SolverPhaseEvent extends Event
+{
+	@Label("Solver")
+	String solver;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Size")
+	@Description("Ticket cities for the path solvers, map cities for table builds")
+	int size;
+
+	private static final EventType TYPE = EventType.getEventType(SolverPhaseEvent.class);
+
+	// starts timing <phase> (null if no recording wants it); end() it when the phase is done
+	static SolverPhaseEvent begin(String solver, String phase, int size)
+	{
+		if (!TYPE.isEnabled())
+			return null;
+		SolverPhaseEvent event = new SolverPhaseEvent();
+		event.solver = solver;
+		event.phase = phase;
+		event.size = size;
+		event.begin();
+		return event;
+	}
+
+	static void end(SolverPhaseEvent event)
+	{
+		if (event != null)
+			event.commit();
+	}
+}
@@ -0,0 +1,154 @@
+import java.util.*;
+
+public class SparseGraph
+{
+	private static final int INF = Ticket2Ride.INF;
+
+	// compressed sparse row layout: neighbours of u are targets[offsets[u] .. offsets[u + 1] - 1]
+	private final int[] offsets;
+	private final int[] targets;
+	private final int[] weights;
+
+	// builds the graph from an undirected edge list (edge i is edgeA[i] - edgeB[i] with weight edgeW[i])
+	public SparseGraph(int nCities, int[] edgeA, int[] edgeB, int[] edgeW, int nEdges)
+	{
+		offsets = new int[nCities + 1];
+		targets = new int[2 * nEdges];
+		weights = new int[2 * nEdges];
+		// count degrees, then prefix sum them into row offsets
+		for (int i = 0; i < nEdges; ++i)
+		{
+			offsets[edgeA[i] + 1]++;
+			offsets[edgeB[i] + 1]++;
+		}
+		for (int u = 0; u < nCities; ++u)
+			offsets[u + 1] += offsets[u];
+		int[] fill = Arrays.copyOf(offsets, nCities);
+		for (int i = 0; i < nEdges; ++i)
+		{
+			targets[fill[edgeA[i]]] = edgeB[i];
+			weights[fill[edgeA[i]]++] = edgeW[i];
+			targets[fill[edgeB[i]]] = edgeA[i];
+			weights[fill[edgeB[i]]++] = edgeW[i];
+		}
+	}
+
+	// wraps ready-made CSR arrays (e.g. from a compiled map file)
+	SparseGraph(int[] offsets, int[] targets, int[] weights)
+	{
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+	}
+
+	// copy that shares the (immutable) structure but has its own weights
+	private SparseGraph(SparseGraph other)
+	{
+		offsets = other.offsets;
+		targets = other.targets;
+		weights = other.weights.clone();
+	}
+
+	public SparseGraph copy() { return new SparseGraph(this); }
+
+	public int size() { return offsets.length - 1; }
+	public int edgeCount() { return targets.length / 2; }
+	public int degree(int u) { return offsets[u + 1] - offsets[u]; }
+	public int neighbour(int u, int i) { return targets[offsets[u] + i]; }
+	public int neighbourWeight(int u, int i) { return weights[offsets[u] + i]; }
+	int[] offsets() { return offsets; }
+	int[] targets() { return targets; }
+	int[] weights() { return weights; }
+
+	// weight of edge a-b, or 0 if the cities aren't adjacent (same convention as adjMat)
+	public int weight(int a, int b)
+	{
+		for (int i = offsets[a]; i < offsets[a + 1]; ++i)
+			if (targets[i] == b)
+				return weights[i];
+		return 0;
+	}
+
+	public void setWeight(int a, int b, int w)
+	{
+		for (int i = offsets[a]; i < offsets[a + 1]; ++i)
+			if (targets[i] == b)
+				weights[i] = w;
+		for (int i = offsets[b]; i < offsets[b + 1]; ++i)
+			if (targets[i] == a)
+				weights[i] = w;
+	}
+
+	// single-source shortest paths with a binary heap, O(m log n)
+	// since the graph is undirected, parent[x] is also the next hop from x back towards <src>
+	public ShortestPathTree dijkstra(int src)
+	{
+		int n = size();
+		ShortestPathTree tree = new ShortestPathTree(src, n);
+		int[] dist = tree.dist;
+		int[] parent = tree.parent;
+		Arrays.fill(dist, INF);
+		Arrays.fill(parent, -1);
+		dist[src] = 0;
+
+		// lazy-deletion heap of (dist << 32 | city), stale entries are skipped when popped
+		long[] heap = new long[targets.length + 1];
+		int heapSize = push(heap, 0, src);
+		while (heapSize > 0)
+		{
+			long top = heap[0];
+			heapSize = pop(heap, heapSize);
+			int u = (int) top;
+			int d = (int) (top >>> 32);
+			if (d > dist[u])
+				continue;
+			for (int i = offsets[u]; i < offsets[u + 1]; ++i)
+			{
+				int w = weights[i];
+				if (w >= INF)
+					continue;
+				int v = targets[i];
+				if (d + w < dist[v])
+				{
+					dist[v] = d + w;
+					parent[v] = u;
+					heapSize = push(heap, heapSize, ((long) dist[v] << 32) | v);
+				}
+			}
+		}
+		return tree;
+	}
+
+	// binary min-heap over a plain long[], shared with the other solvers; returns the new size
+	static int push(long[] heap, int size, long x)
+	{
+		int i = size;
+		while (i > 0 && heap[(i - 1) / 2] > x)
+		{
+			heap[i] = heap[(i - 1) / 2];
+			i = (i - 1) / 2;
+		}
+		heap[i] = x;
+		return size + 1;
+	}
+
+	// removes heap[0]; returns the new size
+	static int pop(long[] heap, int size)
+	{
+		long x = heap[--size];
+		int i = 0;
+		while (2 * i + 1 < size)
+		{
+			int c = 2 * i + 1;
+			if (c + 1 < size && heap[c + 1] < heap[c])
+				++c;
+			if (heap[c] >= x)
+				break;
+			heap[i] = heap[c];
+			i = c;
+		}
+		if (size > 0)
+			heap[i] = x;
+		return size;
+	}
+}
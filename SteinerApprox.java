@@ -0,0 +1,140 @@
+import java.util.*;
+
+// primitive-only version of the metric closure MST 2-approximation
+// one instance is a reusable scratch arena: once its arrays have grown to fit, solve() allocates nothing (unless a
+// JFR recording has SolverPhaseEvent enabled)
+// not thread-safe, keep one per thread
+public class SteinerApprox
+{
+	private long[] edges = new long[0];  // closure edges packed as weight << 32 | i << 16 | j
+	private int[] ufParent = new int[0]; // union-find over terminal indices
+	private int[] ufSize = new int[0];
+	private int[] mstA = new int[0], mstB = new int[0];
+	private long[] hops = new long[0];   // expanded path steps packed as from << 32 | to
+	private int nRoutes;
+
+	public int routeCount() { return nRoutes; }
+	public int routeFrom(int i) { return (int) (hops[i] >>> 32); }
+	public int routeTo(int i) { return (int) hops[i]; }
+
+	// terminals[0 .. k-1] must be sorted ascending (as cityUsages iterates), which keeps ties
+	// broken exactly like the OrderedTriple sort did
+	// returns the number of trains, or -1 if the cities can't be connected without a blocked route
+	public int solve(SessionSnapshot model, int[] terminals, int k)
+	{
+		// closure edges pack terminal indices in 16 bits, and all k(k - 1) of them have to fit one array
+		if (k > 0xFFFF || (long) k * (k - 1) > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many cities: " + k);
+
+		// step 1: build metric closure of cities as packed longs and sort them by (weight, u, v)
+		SolverPhaseEvent event = SolverPhaseEvent.begin("approx", "closure", k);
+		int nEdges = k * (k - 1);
+		if (edges.length < nEdges)
+			edges = new long[nEdges];
+		int e = 0;
+		for (int i = 0; i < k; ++i)
+			for (int j = 0; j < k; ++j)
+				if (i != j)
+					edges[e++] = ((long) model.distance(terminals[i], terminals[j]) << 32) | ((long) i << 16) | j;
+		Arrays.sort(edges, 0, nEdges);
+		SolverPhaseEvent.end(event);
+
+		// step 2: Kruskal over the sorted closure with an int[] union-find
+		event = SolverPhaseEvent.begin("approx", "mst", k);
+		if (ufParent.length < k)
+		{
+			ufParent = new int[k];
+			ufSize = new int[k];
+			mstA = new int[k];
+			mstB = new int[k];
+		}
+		for (int i = 0; i < k; ++i)
+		{
+			ufParent[i] = i;
+			ufSize[i] = 1;
+		}
+		int nMst = 0;
+		int mst_cost = 0;
+		for (int i = 0; i < nEdges; ++i)
+		{
+			int w = (int) (edges[i] >>> 32);
+			int u = (int) (edges[i] >>> 16) & 0xFFFF;
+			int v = (int) edges[i] & 0xFFFF;
+			int ru = find(u), rv = find(v);
+			if (ru != rv)
+			{
+				mstA[nMst] = u;
+				mstB[nMst++] = v;
+				mst_cost += w;
+				if (mst_cost >= 1000000)
+				{
+					// cost over 1 million, so algorithm had no choice but to use a blocked route
+					SolverPhaseEvent.end(event);
+					return -1;
+				}
+				if (ufSize[ru] < ufSize[rv])
+				{
+					int tmp = ru;
+					ru = rv;
+					rv = tmp;
+				}
+				ufParent[rv] = ru;
+				ufSize[ru] += ufSize[rv];
+			}
+			if (ufSize[find(u)] == k)
+			{
+				// all cities connected, can quit early
+				break;
+			}
+		}
+
+		SolverPhaseEvent.end(event);
+
+		// step 3: expand mst edges to full paths, then sort and drop repeated steps
+		event = SolverPhaseEvent.begin("approx", "expand", k);
+		int nHops = 0;
+		for (int i = 0; i < nMst; ++i)
+		{
+			int currentV = terminals[mstA[i]];
+			int lastV = terminals[mstB[i]];
+			while (currentV != lastV)
+			{
+				int nextV = model.nextHop(currentV, lastV);
+				if (nHops == hops.length)
+					hops = Arrays.copyOf(hops, Math.max(16, 2 * nHops));
+				hops[nHops++] = ((long) currentV << 32) | nextV;
+				currentV = nextV;
+			}
+		}
+		Arrays.sort(hops, 0, nHops);
+		nRoutes = 0;
+		for (int i = 0; i < nHops; ++i)
+		{
+			if (nRoutes > 0 && hops[nRoutes - 1] == hops[i])
+			{
+				// duplicate edge! reduce cost
+				mst_cost -= model.edgeWeight((int) (hops[i] >>> 32), (int) hops[i]);
+			}
+			else
+			{
+				hops[nRoutes++] = hops[i];
+			}
+		}
+		SolverPhaseEvent.end(event);
+		return mst_cost;
+	}
+
+	private int find(int i)
+	{
+		int root = i;
+		while (ufParent[root] != root)
+			root = ufParent[root];
+		while (ufParent[i] != root)
+		{
+			int next = ufParent[i];
+			ufParent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+}
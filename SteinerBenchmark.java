@@ -0,0 +1,60 @@
+import java.util.*;
+
+// scaling benchmark for the parallel exact Steiner solver
+// usage: java SteinerBenchmark [map file] [terminals] [max threads] [runs]
+public class SteinerBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		String map = args.length > 0 ? args[0] : "eu.txt";
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		Ticket2Ride model = new Ticket2Ride(GameMap.load(map));
+		int n = model.getCities().size();
+		if (k > n)
+			k = n;
+
+		// chain k random cities together with tickets so they all become terminals
+		ArrayList<Integer> cities = new ArrayList<>();
+		for (int i = 0; i < n; ++i)
+			cities.add(i);
+		Collections.shuffle(cities, new Random(42));
+		for (int i = 0; i + 1 < k; ++i)
+			model.addTicket(model.getCities().name(cities.get(i)), model.getCities().name(cities.get(i + 1)));
+		model.buildAPSP();
+		// the solver itself is timed, on the published snapshot: going through the session would hit its PathCache
+		// on every run after the first, whatever the thread count
+		SessionSnapshot snapshot = model.snapshot();
+		System.out.printf("%s: %d cities, %d terminals, %d runs per thread count%n", map, n, k, runs);
+
+		String reference = null;
+		double baseline = 0;
+		System.out.println("threads    best ms  speedup");
+		for (int threads = 1; threads <= maxThreads; ++threads)
+		{
+			// one untimed warm-up run, then keep the best of <runs>
+			String result = snapshot.steinerTreeExact(threads).toString();
+			long hits = model.getPathCache().hits();
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < runs; ++r)
+			{
+				long start = System.nanoTime();
+				result = snapshot.steinerTreeExact(threads).toString();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if (model.getPathCache().hits() != hits)
+				throw new IllegalStateException("timed runs were answered from the path cache");
+			if (reference == null)
+				reference = result;
+			else if (!reference.equals(result))
+				throw new IllegalStateException(String.format("%d threads gave a different tree than 1 thread", threads));
+
+			double ms = best / 1e6;
+			if (threads == 1)
+				baseline = ms;
+			System.out.printf("%7d %10.2f %8.2fx%n", threads, ms, baseline / ms);
+		}
+	}
+}
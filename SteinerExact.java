@@ -0,0 +1,236 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SteinerExact
+{
+	private static final int INF = Ticket2Ride.INF;
+	// 3^(k-1) * n work and 2^(k-1) * n ints of table, so keep k sane
+	public static final int MAX_TERMINALS = 16;
+
+	private final SessionSnapshot model;
+	private final SparseGraph graph;
+	private final int[] terminals;
+	private final int n;
+	private final int m; // terminals in the subset DP, the last terminal is the root
+	private final int parallelism;
+	private int[] dp;    // dp[mask * n + v]: cheapest tree spanning terminals in <mask> plus city v
+
+	public SteinerExact(SessionSnapshot model, int[] terminals)
+	{
+		this(model, terminals, 1);
+	}
+
+	// parallelism > 1 spreads each layer of equal-sized subsets over a ForkJoinPool of that many threads
+	public SteinerExact(SessionSnapshot model, int[] terminals, int parallelism)
+	{
+		this.model = model;
+		this.graph = model.getGraph();
+		this.terminals = terminals;
+		this.n = graph.size();
+		this.m = terminals.length - 1;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> solve() throws Exception
+	{
+		if (terminals.length > MAX_TERMINALS)
+			throw new Exception(String.format("2: Too many cities for exact solver (%d, max %d)", terminals.length, MAX_TERMINALS));
+		if (terminals.length <= 1)
+			return new Pair<>(0, new ArrayList<>()); // nothing to connect
+
+		// Dreyfus-Wagner: grow optimal trees over every subset of terminals, smallest subsets first
+		int nMasks = 1 << m;
+		if ((long) nMasks * n > Integer.MAX_VALUE - 8)
+			throw new Exception(String.format("2: Map too big for exact solver with %d cities to connect (%d cities)", terminals.length, n));
+		dp = new int[nMasks * n];
+		Arrays.fill(dp, INF);
+		if (parallelism == 1)
+		{
+			long[] heap = newHeap();
+			for (int mask = 1; mask < nMasks; ++mask)
+				computeMask(mask, heap);
+		}
+		else
+		{
+			computeParallel();
+		}
+
+		int root = terminals[m];
+		int cost = dp[(nMasks - 1) * n + root];
+		if (cost >= 1000000)
+		{
+			// cost over 1 million, so the tree had no choice but to use a blocked route
+			throw new Exception("1: Unable to connect all cities");
+		}
+
+		// walk the table back down to the routes that make up the tree
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> routes = new TreeSet<>();
+		collect(nMasks - 1, root, routes);
+		int routeCost = 0;
+		for (OrderedTriple<Integer, Integer, Integer> route : routes)
+			routeCost += model.edgeWeight(route.first(), route.second());
+		return new Pair<>(routeCost, new ArrayList<>(routes));
+	}
+
+	private long[] newHeap()
+	{
+		return new long[2 * graph.edgeCount() + n + 1];
+	}
+
+	// a mask only reads rows of its proper submasks, which all have fewer bits,
+	// so every mask within one popcount layer can be filled independently;
+	// each row is still computed by the same sequential code, so the table is bit-identical
+	private void computeParallel() throws Exception
+	{
+		int nMasks = 1 << m;
+		int[][] layers = new int[m + 1][];
+		int[] layerSize = new int[m + 1];
+		for (int mask = 1; mask < nMasks; ++mask)
+			layerSize[Integer.bitCount(mask)]++;
+		for (int s = 1; s <= m; ++s)
+			layers[s] = new int[layerSize[s]];
+		Arrays.fill(layerSize, 0);
+		for (int mask = 1; mask < nMasks; ++mask)
+		{
+			int s = Integer.bitCount(mask);
+			layers[s][layerSize[s]++] = mask;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try
+		{
+			for (int s = 1; s <= m; ++s)
+				pool.invoke(new LayerTask(layers[s], 0, layers[s].length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private class LayerTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int CHUNK = 16;
+		private final int[] masks;
+		private final int from, to;
+
+		LayerTask(int[] masks, int from, int to)
+		{
+			this.masks = masks;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from <= CHUNK)
+			{
+				long[] heap = newHeap();
+				for (int i = from; i < to; ++i)
+					computeMask(masks[i], heap);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new LayerTask(masks, from, mid), new LayerTask(masks, mid, to));
+		}
+	}
+
+	// fills row <mask> of the table; every proper submask must already be done
+	void computeMask(int mask, long[] heap)
+	{
+		int base = mask * n;
+		if ((mask & (mask - 1)) == 0)
+		{
+			// single terminal: seed straight from the shortest path table
+			int t = terminals[Integer.numberOfTrailingZeros(mask)];
+			for (int v = 0; v < n; ++v)
+				dp[base + v] = model.distance(t, v);
+			dp[base + t] = 0;
+			return;
+		}
+
+		// step 1: join two smaller trees at v
+		// (only submasks holding the lowest bit, so each split is tried once)
+		int low = mask & -mask;
+		for (int sub = (mask - 1) & mask; sub > 0; sub = (sub - 1) & mask)
+		{
+			if ((sub & low) == 0)
+				continue;
+			int a = sub * n, b = (mask ^ sub) * n;
+			for (int v = 0; v < n; ++v)
+			{
+				int da = dp[a + v], db = dp[b + v];
+				if (da < INF && db < INF && da + db < dp[base + v])
+					dp[base + v] = da + db;
+			}
+		}
+
+		// step 2: grow the joined trees along graph edges (Dijkstra seeded with every finite entry)
+		int heapSize = 0;
+		for (int v = 0; v < n; ++v)
+			if (dp[base + v] < INF)
+				heapSize = SparseGraph.push(heap, heapSize, ((long) dp[base + v] << 32) | v);
+		while (heapSize > 0)
+		{
+			long top = heap[0];
+			heapSize = SparseGraph.pop(heap, heapSize);
+			int u = (int) top;
+			int d = (int) (top >>> 32);
+			if (d > dp[base + u])
+				continue;
+			for (int i = 0; i < graph.degree(u); ++i)
+			{
+				int w = graph.neighbourWeight(u, i);
+				int v = graph.neighbour(u, i);
+				if (w < INF && d + w < dp[base + v])
+				{
+					dp[base + v] = d + w;
+					heapSize = SparseGraph.push(heap, heapSize, ((long) dp[base + v] << 32) | v);
+				}
+			}
+		}
+	}
+
+	private void collect(int mask, int v, TreeSet<OrderedTriple<Integer, Integer, Integer>> routes)
+	{
+		int value = dp[mask * n + v];
+		if ((mask & (mask - 1)) == 0)
+		{
+			// single terminal: follow the stored shortest path back to it
+			int t = terminals[Integer.numberOfTrailingZeros(mask)];
+			while (v != t)
+			{
+				int next = model.nextHop(v, t);
+				routes.add(new OrderedTriple<>(Math.min(v, next), Math.max(v, next), 0));
+				v = next;
+			}
+			return;
+		}
+
+		// was this entry a join of two subtrees at v...
+		int low = mask & -mask;
+		for (int sub = (mask - 1) & mask; sub > 0; sub = (sub - 1) & mask)
+		{
+			if ((sub & low) == 0)
+				continue;
+			int da = dp[sub * n + v], db = dp[(mask ^ sub) * n + v];
+			if (da < INF && db < INF && da + db == value)
+			{
+				collect(sub, v, routes);
+				collect(mask ^ sub, v, routes);
+				return;
+			}
+		}
+		// ...or an edge grown out of a neighbour
+		for (int i = 0; i < graph.degree(v); ++i)
+		{
+			int w = graph.neighbourWeight(v, i);
+			int u = graph.neighbour(v, i);
+			if (w < INF && dp[mask * n + u] + w == value)
+			{
+				routes.add(new OrderedTriple<>(Math.min(u, v), Math.max(u, v), 0));
+				collect(mask, u, routes);
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+import java.util.*;
+
+// Mehlhorn's Steiner tree 2-approximation, straight on the map's graph: no shortest path tables at all
+// one multi-source Dijkstra from every ticket city splits the map into regions (each city goes to its nearest
+// ticket city), then Kruskal over the routes crossing between regions picks which regions to join
+// blocked routes are skipped while searching instead of being priced at +1000000, so blocking never forces
+// a rebuild; each query is O(m log n) whatever the map size
+// one instance is a reusable scratch arena like SteinerApprox; not thread-safe, keep one per thread
+public class SteinerMehlhorn
+{
+	private static final int INF = Ticket2Ride.INF;
+
+	private int[] dist = new int[0];
+	private int[] source = new int[0];   // index (into terminals) of the ticket city whose region holds each city
+	private int[] parent = new int[0];   // previous city on the way back to that ticket city
+	private boolean[] onTree = new boolean[0];
+	private long[] heap = new long[0];
+	private long[] bridges = new long[0]; // routes between regions packed as cost << 32 | slot
+	private int[] bridgeFrom = new int[0];
+	private int[] ufParent = new int[0];
+	private int[] ufSize = new int[0];
+	private long[] blocked = new long[0]; // blocked routes packed as min << 32 | max, sorted
+	private long[] hops = new long[0];    // tree routes packed as from << 32 | to
+	private int nRoutes;
+
+	public int routeCount() { return nRoutes; }
+	public int routeFrom(int i) { return (int) (hops[i] >>> 32); }
+	public int routeTo(int i) { return (int) hops[i]; }
+
+	// terminals[0 .. k-1] must be distinct
+	// returns the number of trains, or -1 if the cities can't be connected without a blocked route
+	public int solve(SessionSnapshot model, int[] terminals, int k)
+	{
+		return solve(model, terminals, k, null, 0);
+	}
+
+	// same, also leaving out excluded[0 .. nExcluded - 1] (routes packed as lower city << 32 | higher city)
+	public int solve(SessionSnapshot model, int[] terminals, int k, long[] excluded, int nExcluded)
+	{
+		SparseGraph graph = model.getMap().getGraph(); // unblocked weights
+		int n = graph.size();
+		int[] offsets = graph.offsets(), targets = graph.targets(), weights = graph.weights();
+		grow(n, targets.length, k);
+
+		// step 1: the blocked and excluded routes, for a binary search per edge relaxed
+		int nBlocked = 0;
+		if (blocked.length < model.getBlockedRoutes().size() + nExcluded)
+			blocked = new long[model.getBlockedRoutes().size() + nExcluded];
+		for (Ticket route : model.getBlockedRoutes())
+			blocked[nBlocked++] = pack(route.aIdx(), route.bIdx());
+		for (int i = 0; i < nExcluded; ++i)
+			blocked[nBlocked++] = excluded[i];
+		Arrays.sort(blocked, 0, nBlocked);
+
+		// step 2: multi-source Dijkstra, every ticket city at distance 0
+		SolverPhaseEvent event = SolverPhaseEvent.begin("mehlhorn", "voronoi", k);
+		Arrays.fill(dist, 0, n, INF);
+		int heapSize = 0;
+		for (int t = 0; t < k; ++t)
+		{
+			dist[terminals[t]] = 0;
+			source[terminals[t]] = t;
+			parent[terminals[t]] = -1;
+			heapSize = SparseGraph.push(heap, heapSize, terminals[t]);
+		}
+		while (heapSize > 0)
+		{
+			long top = heap[0];
+			heapSize = SparseGraph.pop(heap, heapSize);
+			int u = (int) top;
+			int d = (int) (top >>> 32);
+			if (d > dist[u])
+				continue;
+			for (int i = offsets[u]; i < offsets[u + 1]; ++i)
+			{
+				int v = targets[i];
+				if (d + weights[i] < dist[v] && !isBlocked(u, v, nBlocked))
+				{
+					dist[v] = d + weights[i];
+					source[v] = source[u];
+					parent[v] = u;
+					heapSize = SparseGraph.push(heap, heapSize, ((long) dist[v] << 32) | v);
+				}
+			}
+		}
+
+		SolverPhaseEvent.end(event);
+
+		// step 3: every route joining two regions, priced as the whole ticket city to ticket city path through it
+		event = SolverPhaseEvent.begin("mehlhorn", "closure", k);
+		int nBridges = 0;
+		for (int u = 0; u < n; ++u)
+		{
+			if (dist[u] >= INF)
+				continue;
+			for (int i = offsets[u]; i < offsets[u + 1]; ++i)
+			{
+				int v = targets[i];
+				if (v < u || dist[v] >= INF || source[v] == source[u] || isBlocked(u, v, nBlocked))
+					continue;
+				long cost = (long) dist[u] + weights[i] + dist[v];
+				bridgeFrom[i] = u;
+				bridges[nBridges++] = (cost << 32) | i;
+			}
+		}
+		Arrays.sort(bridges, 0, nBridges);
+		SolverPhaseEvent.end(event);
+
+		// step 4: Kruskal over the regions, expanding each bridge into its two paths back to the ticket cities
+		event = SolverPhaseEvent.begin("mehlhorn", "mst+expand", k);
+		for (int t = 0; t < k; ++t)
+		{
+			ufParent[t] = t;
+			ufSize[t] = 1;
+		}
+		int joined = 1;
+		int cost = 0;
+		int nHops = 0;
+		for (int b = 0; b < nBridges && joined < k; ++b)
+		{
+			int slot = (int) bridges[b];
+			int u = bridgeFrom[slot], v = targets[slot];
+			int ru = find(source[u]), rv = find(source[v]);
+			if (ru == rv)
+				continue;
+			if (ufSize[ru] < ufSize[rv])
+			{
+				int tmp = ru;
+				ru = rv;
+				rv = tmp;
+			}
+			ufParent[rv] = ru;
+			ufSize[ru] += ufSize[rv];
+			++joined;
+
+			hops[nHops++] = ((long) u << 32) | v;
+			cost += weights[slot];
+			// region paths can share their start, stop at the first route already taken
+			for (int side = 0; side < 2; ++side)
+			{
+				for (int x = side == 0 ? u : v; parent[x] != -1 && !onTree[x]; x = parent[x])
+				{
+					onTree[x] = true;
+					hops[nHops++] = ((long) parent[x] << 32) | x;
+					cost += dist[x] - dist[parent[x]];
+				}
+			}
+		}
+		for (int i = 0; i < nHops; ++i)
+			onTree[(int) hops[i]] = false;
+		SolverPhaseEvent.end(event);
+		if (joined < k)
+			return -1; // some ticket city is cut off by blocked routes
+
+		Arrays.sort(hops, 0, nHops);
+		nRoutes = nHops;
+		return cost;
+	}
+
+	private boolean isBlocked(int a, int b, int nBlocked)
+	{
+		return nBlocked > 0 && Arrays.binarySearch(blocked, 0, nBlocked, pack(a, b)) >= 0;
+	}
+
+	static long pack(int a, int b)
+	{
+		return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+	}
+
+	private void grow(int n, int slots, int k)
+	{
+		if (dist.length < n)
+		{
+			dist = new int[n];
+			source = new int[n];
+			parent = new int[n];
+			onTree = new boolean[n];
+			hops = new long[n];
+		}
+		if (heap.length < slots + k)
+			heap = new long[slots + k];
+		if (bridges.length < slots)
+		{
+			bridges = new long[slots];
+			bridgeFrom = new int[slots];
+		}
+		if (ufParent.length < k)
+		{
+			ufParent = new int[k];
+			ufSize = new int[k];
+		}
+	}
+
+	private int find(int i)
+	{
+		int root = i;
+		while (ufParent[root] != root)
+			root = ufParent[root];
+		while (ufParent[i] != root)
+		{
+			int next = ufParent[i];
+			ufParent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+}
@@ -4,23 +4,25 @@ public class Ticket implements Comparable
 	private int bIdx;
 	private String aCity;
 	private String bCity;
+	private int points; // what completing the ticket scores (and failing it costs); 0 for plain routes
 
-	public Ticket(String a, String b)
+	public Ticket(GameMap map, String a, String b)
 	{
-		if (Ticket2Ride.getInstance().getCityToIntMap().get(a) > Ticket2Ride.getInstance().getCityToIntMap().get(b))
-		{
-			// swap a and b so that a < b
-			String tmp = a;
-			a = b;
-			b = tmp;
-		}
-		this.aCity = a;
-		this.bCity = b;
-		this.aIdx = Ticket2Ride.getInstance().getCityToIntMap().get(a);
-		this.bIdx = Ticket2Ride.getInstance().getCityToIntMap().get(b);
+		this(map, id(map, a), id(map, b));
+	}
+
+	public Ticket(GameMap map, String a, String b, int points)
+	{
+		this(map, id(map, a), id(map, b), points);
+	}
+
+	public Ticket(GameMap map, int a, int b, int points)
+	{
+		this(map, a, b);
+		this.points = points;
 	}
 
-	public Ticket(int a, int b)
+	public Ticket(GameMap map, int a, int b)
 	{
 		if (a > b)
 		{
@@ -29,16 +31,25 @@ public class Ticket implements Comparable
 			a = b;
 			b = tmp;
 		}
-		this.aCity = Ticket2Ride.getInstance().getIntToCityMap().get(a);
-		this.bCity = Ticket2Ride.getInstance().getIntToCityMap().get(b);
+		this.aCity = map.getCities().name(a);
+		this.bCity = map.getCities().name(b);
 		this.aIdx = a;
 		this.bIdx = b;
 	}
 
+	private static int id(GameMap map, String city)
+	{
+		int id = map.getCities().id(city);
+		if (id < 0)
+			throw new IllegalArgumentException(String.format("No such city (%s)", city));
+		return id;
+	}
+
 	public int aIdx() { return this.aIdx; }
 	public int bIdx() { return this.bIdx; }
 	public String aCity() { return this.aCity; }
 	public String bCity() { return this.bCity; }
+	public int points() { return this.points; }
 
 	public int compareTo(Object o)
 	{
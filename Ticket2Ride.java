@@ -1,83 +1,78 @@
 import java.util.*;
-import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+// one game session on a shared GameMap: its tickets, its blocked routes and its own view of the shortest path tables
+// the map's tables are shared copy-on-write, so a session only pays for the rows its blocked routes change
+//
+// safe for concurrent use: writers (add/remove/block/unblock) are serialized and only change the session's
+// pending state; publish() (or buildAPSP()) folds every pending change into a new immutable SessionSnapshot
+// and swaps it in atomically, and readers only ever look at a published snapshot
 public class Ticket2Ride
 {
-	private TreeMap<String, Integer> cityToInt = new TreeMap<>();
-	private TreeMap<Integer, String> intToCity = new TreeMap<>();
+	private final GameMap map;
+	// writer-side state, guarded by <this>
 	private TreeSet<Ticket> ticketSet = new TreeSet<>();
 	private TreeMap<Integer, Integer> cityUsages = new TreeMap<>();
 	private TreeSet<Ticket> blockedRoutes = new TreeSet<>();
-	private int[][] adjMat;
-	private int[][] apsp;
-	private int[][] path;
-	private boolean apspConstructed = false;
+	private ArrayList<Pair<Ticket, Boolean>> pendingRoutes = new ArrayList<>(); // (route, blocked?) since the last publish
+	private boolean pendingReset = false;
+	private boolean pending = false;
+	// what readers see
+	private final AtomicReference<SessionSnapshot> current = new AtomicReference<>();
+	// path results by (algorithm, tickets, blocks), kept across snapshots so flipping back to an earlier state is free
+	private final PathCache pathCache = new PathCache(256);
+	// the approximate tree, kept up to date on every publish with tables
+	private final IncrementalSteiner liveSteiner = new IncrementalSteiner();
+	// every change is appended here once it's made, if the session is being logged (guarded by <this>)
+	private SessionLog log;
 
-	private static Ticket2Ride instance = null;
-	private final int INF = 1000000000;
+	static final int INF = 1000000000;
 
-	private Ticket2Ride()
+	public Ticket2Ride(GameMap map)
 	{
-		// empty body
+		this.map = map;
+		current.set(baseSnapshot(0));
 	}
 
-	public static Ticket2Ride getInstance()
+	// latest published state, never blocks
+	public SessionSnapshot snapshot() { return current.get(); }
+
+	// getter methods (published state)
+	public GameMap getMap() { return map; }
+	public CityIndex getCities() { return map.getCities(); }
+	public CityMatcher getCityMatcher() { return map.getCityMatcher(); }
+	public SortedSet<Ticket> getTicketSet() { return snapshot().getTicketSet(); }
+	public SortedMap<Integer, Integer> getCityUsages() { return snapshot().getCityUsages(); }
+	public SortedSet<Ticket> getBlockedRoutes() { return snapshot().getBlockedRoutes(); }
+	public int[][] getAdjMat() { return snapshot().getAdjMat(); }
+	public SparseGraph getGraph() { return snapshot().getGraph(); }
+	public boolean isSparseMode() { return map.isSparse(); }
+	public PathCache getPathCache() { return pathCache; }
+
+	// snapshot of the bare map: no tickets, nothing blocked, every table shared with the map
+	private SessionSnapshot baseSnapshot(long version)
 	{
-		if (instance == null)
-			instance = new Ticket2Ride();
-		return instance;
+		int[][] mapAdjMat = map.getAdjMat();
+		return new SessionSnapshot(map, version, new TreeSet<>(), new TreeMap<>(), new TreeSet<>(),
+								   mapAdjMat, null, map.getGraph(), new ConcurrentHashMap<>());
 	}
 
-	// getter methods
-	public TreeMap<String, Integer> getCityToIntMap() { return cityToInt; }
-	public TreeMap<Integer, String> getIntToCityMap() { return intToCity; }
-	public TreeSet<Ticket> getTicketSet() { return ticketSet; }
-	public TreeMap<Integer, Integer> getCityUsages() { return cityUsages; }
-	public TreeSet<Ticket> getBlockedRoutes() { return blockedRoutes; }
-	public int[][] getAdjMat() { return adjMat; }
-	public int[][] getApsp() { return apsp; }
-	public int[][] getPath() { return path; }
-
-	public void loadMap(String filename) throws IOException
+	// without a printed value, a ticket is worth the length of the shortest route between its cities
+	// (roughly how the published tickets are scored)
+	public synchronized void addTicket(String cityA, String cityB) throws Exception
 	{
-		try (BufferedReader mapFile = new BufferedReader(new FileReader(filename)))
-		{
-			// read cities edge list and build adjacency matrix
-			int nCities = Integer.parseInt(mapFile.readLine());
-			adjMat = new int[nCities][nCities];
-			while (mapFile.ready())
-			{
-				String[] line = mapFile.readLine().split(" ");
-				String cityA = line[0].toLowerCase();
-				String cityB = line[1].toLowerCase();
-				int w = Integer.parseInt(line[2]);
-				if (!cityToInt.containsKey(cityA))
-				{
-					cityToInt.put(cityA, cityToInt.size());
-					intToCity.put(cityToInt.size() - 1, cityA);
-				}
-				if (!cityToInt.containsKey(cityB))
-				{
-					cityToInt.put(cityB, cityToInt.size());
-					intToCity.put(cityToInt.size() - 1, cityB);
-				}
-				int a = cityToInt.get(cityA), b = cityToInt.get(cityB);
-				adjMat[a][b] = w;
-				adjMat[b][a] = w; // undirected graph
-			}
-		} catch (IOException ex) {
-			throw new IOException(ex.getMessage());
-		}
+		addTicket(cityA, cityB, defaultPoints(cityA, cityB));
 	}
 
-	public void addTicket(String cityA, String cityB) throws Exception
+	public synchronized void addTicket(String cityA, String cityB, int points) throws Exception
 	{
 		// check if cities are identical
 		if (cityA.equals(cityB))
 			throw new Exception(String.format("1: Cities are identical (%s)", cityA));
 
 		// check if ticket is already added
-		Ticket newTicket = new Ticket(cityA, cityB);
+		Ticket newTicket = new Ticket(map, cityA, cityB, points);
 		if (ticketSet.contains(newTicket))
 			throw new Exception(String.format("2: Ticket already in list (%s - %s)", cityA, cityB));
 
@@ -86,12 +81,24 @@ public class Ticket2Ride
 		// increment city usages
 		cityUsages.put(newTicket.aIdx(), cityUsages.getOrDefault(newTicket.aIdx(), 0) + 1);
 		cityUsages.put(newTicket.bIdx(), cityUsages.getOrDefault(newTicket.bIdx(), 0) + 1);
+		pending = true;
+		if (log != null)
+			log.append(SessionLog.ADD, newTicket.aIdx(), newTicket.bIdx(), points);
 	}
 
-	public void removeTicket(String cityA, String cityB) throws Exception
+	private int defaultPoints(String cityA, String cityB)
+	{
+		int a = map.getCities().id(cityA), b = map.getCities().id(cityB);
+		if (a < 0 || b < 0 || a == b)
+			return 0; // addTicket reports it
+		int d = map.getGraph().dijkstra(a).dist[b];
+		return d >= INF ? 0 : d;
+	}
+
+	public synchronized void removeTicket(String cityA, String cityB) throws Exception
 	{
 		// ensure ticket is in <ticketSet>
-		Ticket toRemove = new Ticket(cityA, cityB);
+		Ticket toRemove = new Ticket(map, cityA, cityB);
 		if (!ticketSet.contains(toRemove))
 			throw new Exception(String.format("Ticket not in list (%s - %s)", cityA, cityB));
 
@@ -101,197 +108,319 @@ public class Ticket2Ride
 		// decrement <cityUsages> entries
 		cityUsages.computeIfPresent(toRemove.aIdx(), (key, value) -> value == 1 ? null : value - 1);
 		cityUsages.computeIfPresent(toRemove.bIdx(), (key, value) -> value == 1 ? null : value - 1);
+		pending = true;
+		if (log != null)
+			log.append(SessionLog.REMOVE, toRemove.aIdx(), toRemove.bIdx(), 0);
 	}
 
-	public void resetModel()
+	public synchronized void resetModel()
 	{
 		// remove all tickets
 		ticketSet.clear();
 		cityUsages.clear();
-		// unblock all routes
-		for (Ticket toUnblock : blockedRoutes)
+		// unblock all routes: the next snapshot starts over from the map's own tables
+		blockedRoutes.clear();
+		pendingRoutes.clear();
+		pendingReset = true;
+		pending = true;
+		if (log != null)
+			log.append(SessionLog.RESET, 0, 0, 0);
+	}
+
+	// log every change from now on (null stops logging), see SessionLog
+	synchronized void attachLog(SessionLog log)
+	{
+		this.log = log;
+	}
+
+	// recovery from a SessionLog snapshot: start over with <tickets> and <blocked>, and <table> (if the snapshot had
+	// them) as the shortest path tables, so no blocked route needs replaying
+	synchronized void restore(Collection<Ticket> tickets, Collection<Ticket> blocked, DistanceTable table)
+	{
+		resetModel();
+		for (Ticket t : tickets)
 		{
-			try {
-				blockRoute(false, toUnblock.aCity(), toUnblock.bCity());
-			} catch (Exception ex) {}
+			ticketSet.add(t);
+			cityUsages.merge(t.aIdx(), 1, Integer::sum);
+			cityUsages.merge(t.bIdx(), 1, Integer::sum);
+		}
+		for (Ticket route : blocked)
+		{
+			blockedRoutes.add(route);
+			pendingRoutes.add(new Pair<>(route, true));
+		}
+		SessionSnapshot next = publish(false);
+		if (table != null && !isSparseMode())
+		{
+			next = new SessionSnapshot(map, next.getVersion(), ticketSet, cityUsages, blockedRoutes,
+									   next.getAdjMat(), table, next.getGraph(), next.getTrees());
+			liveSteiner.sync(next);
+			current.set(next);
 		}
-		blockedRoutes.clear();
 	}
 
-	public void blockRoute(boolean block, String cityA, String cityB) throws Exception
+	public synchronized void blockRoute(boolean block, String cityA, String cityB) throws Exception
 	{
 		// increment/decrement edge weight by 1000000 to prevent/allow its use in path computations
-		int a = cityToInt.get(cityA);
-		int b = cityToInt.get(cityB);
-		int delta = block ? 1 : -1;
-		Ticket route = new Ticket(a, b);
+		// (applied to the tables at the next publish)
+		Ticket route = new Ticket(map, cityA, cityB);
+		int a = route.aIdx(), b = route.bIdx();
 		if (!(blockedRoutes.contains(route) ^ block))
 		{
 			throw new Exception(String.format("1 - Route already %sblocked (%s - %s)", !block ? "un" : "", cityA, cityB));
 		}
-		else if (block && adjMat[a][b] == 0)
+		else if (block && map.getGraph().weight(a, b) == 0)
 		{
 			throw new Exception(String.format("2 - Cities not adjacent (%s - %s)", cityA, cityB));
 		}
 		else
 		{
-			adjMat[a][b] += 1000000 * delta;
-			adjMat[b][a] += 1000000 * delta;
-			apspConstructed = false;
 			if (block)
 				blockedRoutes.add(route);
 			else
 				blockedRoutes.remove(route);
+			pendingRoutes.add(new Pair<>(route, block));
+			pending = true;
+			if (log != null)
+				log.append(block ? SessionLog.BLOCK : SessionLog.UNBLOCK, a, b, 0);
+			// the next publish can't reuse this session's tables, trees or live tree as they are
+			Metrics.increment("invalidations.blockRoute");
 		}
 	}
 
-	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeApprox() throws Exception
+	// dense mode: publish with shortest path tables built (sparse mode grows trees on demand instead)
+	public void buildAPSP()
+	{
+		publish(true);
+	}
+
+	public SessionSnapshot publish()
+	{
+		return publish(false);
+	}
+
+	// folds every pending change into a new snapshot and swaps it in; readers still holding the old one are unaffected
+	public synchronized SessionSnapshot publish(boolean withTables)
 	{
-		// minimum spanning tree: shortest path to connect all cities
-		// actually NP-hard Steiner Tree problem
-		// will use 2-approximation technique to solve
+		SessionSnapshot prev = current.get();
+		if (!pending && (!withTables || prev.hasTables()))
+			return prev; // already up-to-date
 
-		// step 1: build metric closure of cities (in form of edge list)
-		ArrayList<OrderedTriple<Integer, Integer, Integer>> edgeList = new ArrayList<>();
-		for (int city : cityUsages.keySet())
+		if (pendingReset)
+			prev = baseSnapshot(prev.getVersion());
+		int n = map.size();
+
+		// step 1: route weights, copying only what changes
+		SparseGraph graph = prev.getGraph();
+		int[][] adjMat = prev.getAdjMat();
+		ConcurrentHashMap<Integer, ShortestPathTree> trees = prev.getTrees();
+		boolean[] ownAdjRow = new boolean[n];
+		int[] oldW = new int[pendingRoutes.size()];
+		if (!pendingRoutes.isEmpty())
+		{
+			graph = graph.copy();
+			trees = new ConcurrentHashMap<>(); // trees are cheap to regrow on demand
+			if (adjMat != null)
+				adjMat = adjMat.clone();
+		}
+		for (int i = 0; i < pendingRoutes.size(); ++i)
 		{
-			for (int city2 : cityUsages.keySet())
+			int a = pendingRoutes.get(i).first().aIdx(), b = pendingRoutes.get(i).first().bIdx();
+			oldW[i] = graph.weight(a, b);
+			int newW = weightFor(i);
+			graph.setWeight(a, b, newW);
+			if (adjMat != null)
 			{
-				if (city != city2)
-				{
-					OrderedTriple<Integer, Integer, Integer> edge = new OrderedTriple<>(apsp[city][city2], city, city2); // form: weight, u, v; sort by weight
-					edgeList.add(edge);
-				}
+				ownRow(adjMat, ownAdjRow, a);
+				ownRow(adjMat, ownAdjRow, b);
+				adjMat[a][b] = newW;
+				adjMat[b][a] = newW;
 			}
 		}
-		Collections.sort(edgeList);
 
-		// step 2: find MST of cities on metric closure graph
-		UnionFind unionFind = new UnionFind(cityToInt.size());
-		ArrayList<OrderedTriple<Integer, Integer, Integer>> mst = new ArrayList<>();
-		int mst_cost = 0;
-		for (int i = 0; i < edgeList.size(); ++i)
+		// step 2: shortest path tables (dense mode)
+		DistanceTable table = prev.getTable();
+		if (!isSparseMode() && table != null && !pendingRoutes.isEmpty())
 		{
-			OrderedTriple<Integer, Integer, Integer> nextEdge = edgeList.get(i);
-			if (!unionFind.isSameSet(nextEdge.second(), nextEdge.third()))
+			// repair the previous tables instead of rerunning Floyd-Warshall from scratch,
+			// replaying the batch one weight change at a time
+			Metrics.increment("apsp.repairs");
+			SessionDistanceTable repaired = SessionDistanceTable.over(table);
+			int[][] replayAdj = prev.getAdjMat().clone();
+			boolean[] ownReplayRow = new boolean[n];
+			for (int i = 0; i < pendingRoutes.size(); ++i)
 			{
-				mst.add(nextEdge);
-				mst_cost += nextEdge.first();
-				if (mst_cost >= 1000000)
-				{
-					// cost over 1 million, so algorithm had no choice but to use a blocked route
-					throw new Exception("Unable to connect all cities");
-				}
-				unionFind.unionSet(nextEdge.second(), nextEdge.third());
+				int a = pendingRoutes.get(i).first().aIdx(), b = pendingRoutes.get(i).first().bIdx();
+				int newW = weightFor(i);
+				ownRow(replayAdj, ownReplayRow, a);
+				ownRow(replayAdj, ownReplayRow, b);
+				replayAdj[a][b] = newW;
+				replayAdj[b][a] = newW;
+				if (newW > oldW[i])
+					IncrementalAPSP.edgeIncreased(replayAdj, repaired, a, b, oldW[i]);
+				else
+					IncrementalAPSP.edgeDecreased(replayAdj, repaired, a, b);
 			}
-			if (unionFind.sizeOfSet(nextEdge.second()) == cityUsages.size())
+			table = repaired;
+		}
+		else if (!isSparseMode() && table == null && withTables && blockedRoutes.isEmpty())
+		{
+			// nothing blocked, so the map's own tables are exactly right (mapped straight from disk for compiled maps)
+			table = map.getBaseTable();
+		}
+		else if (!isSparseMode() && table == null && withTables)
+		{
+			// start from the map's shared tables and replay every blocked route on top
+			Metrics.increment("apsp.repairs");
+			SessionDistanceTable repaired = new SessionDistanceTable(map.getBaseTable());
+			int[][] replayAdj = map.getAdjMat().clone();
+			boolean[] ownReplayRow = new boolean[n];
+			for (Ticket route : blockedRoutes)
 			{
-				// all cities connected, can quit early
-				break;
+				int a = route.aIdx(), b = route.bIdx();
+				int w = replayAdj[a][b];
+				ownRow(replayAdj, ownReplayRow, a);
+				ownRow(replayAdj, ownReplayRow, b);
+				replayAdj[a][b] = adjMat[a][b];
+				replayAdj[b][a] = adjMat[b][a];
+				IncrementalAPSP.edgeIncreased(replayAdj, repaired, a, b, w);
 			}
+			table = repaired;
 		}
-		edgeList.clear(); // don't need this anymore
 
-		// step 3: expand edges in metric closure mst to full paths in original graph
-		TreeSet<OrderedTriple<Integer, Integer, Integer>> routes = new TreeSet<>();
-		for (OrderedTriple<Integer, Integer, Integer> edge : mst)
+		SessionSnapshot next = new SessionSnapshot(map, current.get().getVersion() + 1, ticketSet, cityUsages, blockedRoutes,
+												   adjMat, table, graph, trees);
+		pendingRoutes.clear();
+		pendingReset = false;
+		pending = false;
+		if (next.hasTables())
+			liveSteiner.sync(next);
+		current.set(next);
+		if (log != null)
+			log.published(next);
+		return next;
+	}
+
+	// weight of the route in the <i>th pending change once it is applied
+	private int weightFor(int i)
+	{
+		Ticket route = pendingRoutes.get(i).first();
+		return map.getGraph().weight(route.aIdx(), route.bIdx()) + (pendingRoutes.get(i).second() ? 1000000 : 0);
+	}
+
+	// copy-on-write: give the caller its own copy of row i before writing to it
+	static void ownRow(int[][] table, boolean[] owned, int i)
+	{
+		if (owned[i])
+			return;
+		table[i] = table[i].clone();
+		owned[i] = true;
+	}
+
+	// queries on the published snapshot, answered from the path cache when the same tickets and blocks came up before
+	// (each timed under its own name in Metrics, hits included, since that is what the caller waits for)
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeApprox() throws Exception
+	{
+		Metrics.Sample sample = Metrics.start("steinerTreeApprox");
+		try
 		{
-			// for each edge in mst...
-			// ...follow path in <path> and add each edge to <routes>
-			int currentV = edge.second();
-			int lastV = edge.third();
-			while (currentV != lastV)
+			SessionSnapshot model = snapshot();
+			IncrementalSteiner.Result live = liveSteiner.resultFor(model);
+			if (live != null)
 			{
-				int nextV = path[currentV][lastV];
-				if (!routes.add(new OrderedTriple<>(currentV, nextV, 0))) {
-					// duplicate edge! reduce cost
-					mst_cost -= adjMat[currentV][nextV];
-				}
-				currentV = nextV;
+				if (live.routes == null)
+					throw new Exception("Unable to connect all cities");
+				return new Pair<>(live.routes.first(), new ArrayList<>(live.routes.second())); // the live tree's own stays as it is
 			}
+			return pathCache.get("MST", model, model::steinerTreeApprox);
+		} finally {
+			sample.stop();
 		}
+	}
 
-		// step 4: return cost and routes to claim
-		return new Pair<>(mst_cost, new ArrayList<>(routes));
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeMehlhorn() throws Exception
+	{
+		Metrics.Sample sample = Metrics.start("steinerTreeMehlhorn");
+		try
+		{
+			SessionSnapshot model = snapshot();
+			return pathCache.get("FAST", model, model::steinerTreeMehlhorn);
+		} finally {
+			sample.stop();
+		}
 	}
 
-	public void steinerTreeExact()
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeExact() throws Exception
 	{
-		throw new UnsupportedOperationException("Not supported yet");
+		return steinerTreeExact(1);
 	}
 
-	public void modifiedTSP()
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> steinerTreeExact(int parallelism) throws Exception
 	{
-		throw new UnsupportedOperationException("Not supported yet");
+		// same tree whatever the parallelism, so one entry serves them all
+		Metrics.Sample sample = Metrics.start("steinerTreeExact");
+		try
+		{
+			SessionSnapshot model = snapshot();
+			return pathCache.get("SLOW", model, () -> model.steinerTreeExact(parallelism));
+		} finally {
+			sample.stop();
+		}
 	}
 
-	public void buildAPSP()
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> modifiedTSP() throws Exception
 	{
-		if (apspConstructed)
-			return; // apsp already up-to-date
-
-		// from adjMat, construct APSP table
-		apsp = new int[adjMat.length][adjMat.length];
-		path = new int[adjMat.length][adjMat.length];
-		// copy adjMat to apsp table to start with
-		// and set intial paths
-		for (int i = 0; i < apsp.length; ++i)
+		return modifiedTSP(200);
+	}
+
+	public Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> modifiedTSP(long budgetMillis) throws Exception
+	{
+		// the heuristic's answer depends on its time budget, so that is part of the key
+		Metrics.Sample sample = Metrics.start("modifiedTSP");
+		try
 		{
-			for (int j = 0; j < apsp[i].length; ++j)
-			{
-				// if adjMat[i][j] is 0 or >= INF, then i-j is A) not connected or B) blocked (respectively)
-				apsp[i][j] = (adjMat[i][j] == 0 || adjMat[i][j] >= INF) ? INF : adjMat[i][j];
-				path[i][j] = (adjMat[i][j] == 0 || adjMat[i][j] > INF) ? -1 : j;
-			}
+			SessionSnapshot model = snapshot();
+			return pathCache.get("TSP" + budgetMillis, model, () -> model.modifiedTSP(budgetMillis));
+		} finally {
+			sample.stop();
 		}
-		// Floyd Warshall's algorithm
-		for (int k = 0; k < adjMat.length; ++k)
-			for (int i = 0; i < adjMat.length; ++i)
-				for (int j = 0; j < adjMat.length; ++j)
-				{
-					if (apsp[i][j] > apsp[i][k] + apsp[k][j])
-					{
-						apsp[i][j] = apsp[i][k] + apsp[k][j];
-						// set path values to record how to get from i to j
-						path[i][j] = path[i][k];
-					}
-				}
-		apspConstructed = true;
 	}
-}
 
-class UnionFind
-{
-	private Vector<Integer> p, rank, setSize;
-	private int numSets;
-
-	public UnionFind(int N) {
-		p = new Vector<Integer>(N);
-		rank = new Vector<Integer>(N);
-		setSize = new Vector<Integer>(N);
-		numSets = N;
-		for (int i = 0; i < N; i++) {
-			p.add(i);
-			rank.add(0);
-			setSize.add(1);
+	// the <k> cheapest structurally different plans, cheapest first (see TopKPlans)
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> topPlans(int k) throws Exception
+	{
+		buildAPSP();
+		return new TopKPlans(snapshot()).solve(k);
+	}
+
+	// current plan cost and, for each of its routes, what blocking it would cost, riskiest first (see RouteAnalyzer)
+	public Pair<Integer, ArrayList<RouteAnalyzer.RouteRisk>> analyzeRoutes() throws Exception
+	{
+		buildAPSP();
+		return new RouteAnalyzer(snapshot()).analyze();
+	}
+
+	// the tickets worth keeping with <trains> trains left, and the routes for them (see TicketOptimizer)
+	public TicketOptimizer.Selection optimizeTickets(int trains) throws Exception
+	{
+		return optimizeTickets(trains, 2000);
+	}
+
+	public TicketOptimizer.Selection optimizeTickets(int trains, long budgetMillis) throws Exception
+	{
+		buildAPSP();
+		Metrics.Sample sample = Metrics.start("optimizeTickets");
+		try
+		{
+			return new TicketOptimizer(snapshot(), trains).solve(budgetMillis);
+		} finally {
+			sample.stop();
 		}
 	}
 
-	public int findSet(int i) { 
-		if (p.get(i) == i) return i;
-		else {
-			int ret = findSet(p.get(i)); p.set(i, ret);
-			return ret; } }
-
-	public Boolean isSameSet(int i, int j) { return findSet(i) == findSet(j); }
-
-	public void unionSet(int i, int j) { 
-		if (!isSameSet(i, j)) { numSets--; 
-		int x = findSet(i), y = findSet(j);
-		// rank is used to keep the tree short
-		if (rank.get(x) > rank.get(y)) { p.set(y, x); setSize.set(x, setSize.get(x) + setSize.get(y)); }
-		else													 { p.set(x, y); setSize.set(y, setSize.get(y) + setSize.get(x));
-																		 if (rank.get(x) == rank.get(y)) rank.set(y, rank.get(y) + 1); } } }
-	public int numDisjointSets() { return numSets; }
-	public int sizeOfSet(int i) { return setSize.get(findSet(i)); }
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> evaluateHands(List<? extends Collection<Ticket>> hands)
+	{
+		buildAPSP();
+		return new HandEvaluator(snapshot()).evaluate(hands);
+	}
 }
@@ -0,0 +1,303 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// which tickets to keep when all of them don't fit in the trains left: kept tickets score their points, the rest
+// count against you, so the best choice maximizes kept points - dropped points with the kept tickets' tree
+// (SteinerApprox, the tree "path MST" prints) needing no more than <trains>
+//
+// branch-and-bound over the tickets, most valuable first: each node either keeps or drops the next ticket
+// - a ticket between cities the kept tickets already visit costs nothing more, so it's kept without branching
+// - bound on points: a branch is out if keeping every ticket it has left still falls short of the best found
+//   (ties are still searched: among equal scores the fewest trains wins, so the answer doesn't depend on timing)
+// - bound on trains: closure MST / 2 is a lower bound on any Steiner tree over those cities, and keeping more
+//   tickets never makes the best tree cheaper, so once it's over <trains> the whole branch is out; the same test on
+//   each remaining ticket alone tells which ones can't be kept below a node at all, tightening the points bound
+// tree costs and bounds are memoized by ticket bitmask (the same subset is reached down many branches),
+// and the upper levels of the search are split over a ForkJoinPool, which steals work as branches get pruned
+public class TicketOptimizer
+{
+	public static final int MAX_TICKETS = 62; // subsets are bitmasks in a long
+	private static final int FORK_DEPTH = 12;  // levels of the search that fork tasks, below that it's plain recursion
+
+	public static class Selection
+	{
+		public final ArrayList<Ticket> kept = new ArrayList<>();
+		public final ArrayList<Ticket> dropped = new ArrayList<>();
+		public final int score;   // kept points - dropped points
+		public final Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan; // the kept tickets' routes
+		public final boolean complete; // false if the time budget ran out first, so a better choice may exist
+
+		Selection(Ticket[] tickets, long mask, int score, Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan, boolean complete)
+		{
+			for (int i = 0; i < tickets.length; ++i)
+				((mask >>> i & 1) != 0 ? kept : dropped).add(tickets[i]);
+			this.score = score;
+			this.plan = plan;
+			this.complete = complete;
+		}
+	}
+
+	private final SessionSnapshot model;
+	private final Ticket[] tickets;   // most points first
+	private final int totalPoints;
+	private final int trains;
+	private final ThreadLocal<SteinerApprox> scratch = ThreadLocal.withInitial(SteinerApprox::new);
+	private final ConcurrentHashMap<Long, Integer> costs = new ConcurrentHashMap<>();  // mask -> trains, -1 if unconnectable
+	private final ConcurrentHashMap<Long, Integer> bounds = new ConcurrentHashMap<>(); // mask -> closure MST / 2, rounded up
+
+	// best so far, guarded by <this>; bestPoints is also read without the lock to prune
+	private volatile int bestPoints = 0;
+	private long bestMask = 0;
+	private long deadline;
+	private volatile boolean timedOut = false;
+
+	// <model> must be published with tables (dense mode), like for steinerTreeApprox
+	public TicketOptimizer(SessionSnapshot model, int trains) throws Exception
+	{
+		if (model.getTicketSet().size() > MAX_TICKETS)
+			throw new Exception(String.format("2: Too many tickets to optimize (max %d)", MAX_TICKETS));
+		this.model = model;
+		this.trains = trains;
+		tickets = model.getTicketSet().toArray(new Ticket[0]);
+		Arrays.sort(tickets, (x, y) -> x.points() != y.points() ? Integer.compare(y.points(), x.points()) : x.compareTo(y));
+		int total = 0;
+		for (Ticket t : tickets)
+			total += t.points();
+		totalPoints = total;
+	}
+
+	public Selection solve(long budgetMillis) throws Exception
+	{
+		return solve(Runtime.getRuntime().availableProcessors(), budgetMillis);
+	}
+
+	// the search is exponential in the ticket count at worst (a hand of 10-15 takes well under a second, 25 can take
+	// minutes), so it stops after <budgetMillis> with the best choice found so far
+	public Selection solve(int parallelism, long budgetMillis) throws Exception
+	{
+		deadline = System.nanoTime() + budgetMillis * 1000000L;
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try
+		{
+			pool.invoke(new SearchTask(0L, tickets.length == 0 ? 0L : -1L >>> (64 - tickets.length), 0, 0));
+		} finally {
+			pool.shutdown();
+		}
+
+		long mask;
+		int points;
+		synchronized (this)
+		{
+			mask = bestMask;
+			points = bestPoints;
+		}
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan;
+		if (mask == 0)
+			plan = new Pair<>(0, new ArrayList<>());
+		else
+			plan = subsetSnapshot(mask).steinerTreeApprox();
+		return new Selection(tickets, mask, 2 * points - totalPoints, plan, !timedOut);
+	}
+
+	// decide the tickets in <remaining> on top of the choice <mask> (worth <points>); everything else is dropped
+	private void search(long mask, long remaining, int points)
+	{
+		long[] node = visit(mask, remaining, points);
+		if (node == null)
+			return;
+		mask = node[0];
+		remaining = node[1];
+		points = (int) node[2];
+		long next = Long.lowestOneBit(remaining); // the most valuable ticket left
+		int j = Long.numberOfTrailingZeros(next);
+		// keeping first finds good selections early, which makes the points bound bite sooner
+		search(mask | next, remaining & ~next, points + tickets[j].points());
+		search(mask, remaining & ~next, points);
+	}
+
+	// the work at one node, shared by search and SearchTask: offers <mask> if it fits, and returns the node's
+	// {mask, remaining, points} with the forced choices made, or null if nothing below can reach the best
+	// - a ticket whose cities the kept tickets already visit is free (same cities, same tree), so it's kept
+	// - a ticket that doesn't fit next to <mask> on its own won't fit with anything more either, so it's dropped
+	private long[] visit(long mask, long remaining, int points)
+	{
+		if (timedOut || System.nanoTime() > deadline)
+		{
+			timedOut = true;
+			return null;
+		}
+		BitSet cities = new BitSet();
+		for (long m = mask; m != 0; m &= m - 1)
+		{
+			Ticket t = tickets[Long.numberOfTrailingZeros(m)];
+			cities.set(t.aIdx());
+			cities.set(t.bIdx());
+		}
+		int left = 0;
+		for (long m = remaining; m != 0; m &= m - 1)
+		{
+			int j = Long.numberOfTrailingZeros(m);
+			if (cities.get(tickets[j].aIdx()) && cities.get(tickets[j].bIdx()))
+			{
+				mask |= 1L << j;
+				remaining &= ~(1L << j);
+				points += tickets[j].points();
+			}
+			else
+			{
+				left += tickets[j].points();
+			}
+		}
+
+		if (points + left < bestPoints)
+			return null; // can't reach the best even keeping everything left
+		if (mask != 0 && bound(mask) > trains)
+			return null; // every superset needs too many trains
+		if (points >= bestPoints)
+		{
+			int cost = cost(mask);
+			if (cost >= 0 && cost <= trains)
+				offer(mask, points);
+		}
+
+		long addable = 0;
+		int reachable = points;
+		for (long m = remaining; m != 0; m &= m - 1)
+		{
+			int j = Long.numberOfTrailingZeros(m);
+			if (bound(mask | (1L << j)) <= trains)
+			{
+				addable |= 1L << j;
+				reachable += tickets[j].points();
+			}
+		}
+		if (addable == 0 || reachable < bestPoints)
+			return null;
+		return new long[] { mask, addable, points };
+	}
+
+	private synchronized void offer(long mask, int points)
+	{
+		// equal points: fewer trains wins, then the lower mask, so the answer doesn't depend on thread timing
+		if (points > bestPoints || (points == bestPoints && better(mask, bestMask)))
+		{
+			bestPoints = points;
+			bestMask = mask;
+		}
+	}
+
+	private boolean better(long mask, long other)
+	{
+		int c1 = cost(mask), c2 = cost(other);
+		return c1 != c2 ? c1 < c2 : Long.compareUnsigned(mask, other) < 0;
+	}
+
+	// trains for the approximate tree over the tickets in <mask>, -1 if they can't be connected
+	private int cost(long mask)
+	{
+		Integer cached = costs.get(mask);
+		if (cached != null)
+			return cached;
+		int[] terminals = terminals(mask);
+		int cost = terminals.length == 0 ? 0 : scratch.get().solve(model, terminals, terminals.length);
+		costs.put(mask, cost);
+		return cost;
+	}
+
+	// lower bound on the trains any tree over the tickets in <mask> needs: half the closure MST (Prim, k^2)
+	private int bound(long mask)
+	{
+		Integer cached = bounds.get(mask);
+		if (cached != null)
+			return cached;
+		int[] terminals = terminals(mask);
+		int k = terminals.length;
+		long[] best = new long[k];
+		boolean[] in = new boolean[k];
+		Arrays.fill(best, Long.MAX_VALUE);
+		best[0] = 0;
+		long total = 0;
+		for (int step = 0; step < k; ++step)
+		{
+			int u = -1;
+			for (int v = 0; v < k; ++v)
+				if (!in[v] && (u == -1 || best[v] < best[u]))
+					u = v;
+			in[u] = true;
+			total += best[u];
+			for (int v = 0; v < k; ++v)
+				if (!in[v])
+					best[v] = Math.min(best[v], model.distance(terminals[u], terminals[v]));
+		}
+		int bound = (int) Math.min(Integer.MAX_VALUE, (total + 1) / 2);
+		bounds.put(mask, bound);
+		return bound;
+	}
+
+	// cities of the tickets in <mask>, ascending (as SteinerApprox wants them)
+	private int[] terminals(long mask)
+	{
+		TreeSet<Integer> cities = new TreeSet<>();
+		for (int i = 0; i < tickets.length; ++i)
+		{
+			if ((mask >>> i & 1) != 0)
+			{
+				cities.add(tickets[i].aIdx());
+				cities.add(tickets[i].bIdx());
+			}
+		}
+		int[] terminals = new int[cities.size()];
+		int j = 0;
+		for (int city : cities)
+			terminals[j++] = city;
+		return terminals;
+	}
+
+	// the model with only the tickets in <mask>, for building the final plan
+	private SessionSnapshot subsetSnapshot(long mask)
+	{
+		TreeSet<Ticket> kept = new TreeSet<>();
+		TreeMap<Integer, Integer> usages = new TreeMap<>();
+		for (int i = 0; i < tickets.length; ++i)
+		{
+			if ((mask >>> i & 1) != 0)
+			{
+				kept.add(tickets[i]);
+				usages.merge(tickets[i].aIdx(), 1, Integer::sum);
+				usages.merge(tickets[i].bIdx(), 1, Integer::sum);
+			}
+		}
+		return model.withTickets(kept, usages);
+	}
+
+	private class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final long mask, remaining;
+		private final int points, depth;
+
+		SearchTask(long mask, long remaining, int points, int depth)
+		{
+			this.mask = mask;
+			this.remaining = remaining;
+			this.points = points;
+			this.depth = depth;
+		}
+
+		protected void compute()
+		{
+			if (depth >= FORK_DEPTH)
+			{
+				search(mask, remaining, points);
+				return;
+			}
+			long[] node = visit(mask, remaining, points);
+			if (node == null)
+				return;
+			long next = Long.lowestOneBit(node[1]);
+			int j = Long.numberOfTrailingZeros(next);
+			invokeAll(new SearchTask(node[0] | next, node[1] & ~next, (int) node[2] + tickets[j].points(), depth + 1),
+					  new SearchTask(node[0], node[1] & ~next, (int) node[2], depth + 1));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// the K cheapest structurally different ways to connect every ticket city, for when an opponent may grab a route
+// Yen-style branching: each accepted plan spawns one branch per route it uses, with that route excluded on top of the
+// branch's own exclusions; branches are solved with SteinerMehlhorn (no tables, so excluding a route costs nothing
+// to set up), in parallel, and a branch is dropped once it can't beat the K-th best plan still needed
+// the search starts from both the session's own approximate tree (what "path MST" prints) and Mehlhorn's tree;
+// a branch can turn up a cheaper plan than the one it came from, so the plans found are sorted at the end
+public class TopKPlans
+{
+	private final SessionSnapshot model;
+	private final int[] terminals;
+	private final ThreadLocal<SteinerMehlhorn> scratch = ThreadLocal.withInitial(SteinerMehlhorn::new);
+
+	private static class Candidate implements Comparable<Candidate>
+	{
+		final Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan;
+		final TreeSet<Long> routes;   // the plan's routes, undirected, packed lower << 32 | higher
+		final TreeSet<Long> excluded; // routes this branch may not use
+
+		Candidate(Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> plan, TreeSet<Long> excluded)
+		{
+			this.plan = plan;
+			this.excluded = excluded;
+			this.routes = new TreeSet<>();
+			for (OrderedTriple<Integer, Integer, Integer> route : plan.second())
+				routes.add(SteinerMehlhorn.pack(route.first(), route.second()));
+		}
+
+		// cheapest first, then by route set so equal costs come out in a fixed order
+		public int compareTo(Candidate other)
+		{
+			if (!plan.first().equals(other.plan.first()))
+				return plan.first().compareTo(other.plan.first());
+			Iterator<Long> a = routes.iterator(), b = other.routes.iterator();
+			while (a.hasNext() && b.hasNext())
+			{
+				int c = a.next().compareTo(b.next());
+				if (c != 0)
+					return c;
+			}
+			return Boolean.compare(a.hasNext(), b.hasNext());
+		}
+	}
+
+	// <model> must be published with tables (dense mode), like for steinerTreeApprox
+	public TopKPlans(SessionSnapshot model)
+	{
+		this.model = model;
+		this.terminals = model.terminals();
+	}
+
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> solve(int k) throws Exception
+	{
+		return solve(k, 1, Runtime.getRuntime().availableProcessors());
+	}
+
+	// up to <k> plans, cheapest first; each differs from every plan before it in at least <minDifferent> routes
+	// throws if not even one plan can connect the cities
+	public ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> solve(int k, int minDifferent, int parallelism) throws Exception
+	{
+		ArrayList<Candidate> accepted = new ArrayList<>();
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		HashSet<TreeSet<Long>> triedExclusions = new HashSet<>();
+		queue.add(new Candidate(model.steinerTreeApprox(), new TreeSet<>()));
+		Candidate mehlhorn = solveBranch(new TreeSet<>());
+		if (mehlhorn != null)
+			queue.add(mehlhorn);
+		triedExclusions.add(new TreeSet<>());
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try
+		{
+			while (accepted.size() < k && !queue.isEmpty())
+			{
+				Candidate best = queue.poll();
+				if (!isDifferent(best, accepted, minDifferent))
+					continue; // a plan we (nearly) have already, its branches would just repeat ours
+				accepted.add(best);
+				if (accepted.size() == k)
+					break;
+
+				// step 1: one branch per route of the new plan, skipping exclusion sets already tried
+				ArrayList<TreeSet<Long>> branches = new ArrayList<>();
+				for (long route : best.routes)
+				{
+					TreeSet<Long> excluded = new TreeSet<>(best.excluded);
+					excluded.add(route);
+					if (triedExclusions.add(excluded))
+						branches.add(excluded);
+				}
+
+				// step 2: solve the branches in parallel
+				Candidate[] solved = new Candidate[branches.size()];
+				pool.invoke(new BranchTask(branches, solved, 0, branches.size()));
+
+				// step 3: queue the ones that can still make the cut
+				int bound = kthCost(queue, solved, accepted, minDifferent, k - accepted.size());
+				for (Candidate c : solved)
+					if (c != null && c.plan.first() <= bound)
+						queue.add(c);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		Collections.sort(accepted);
+		ArrayList<Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>>> plans = new ArrayList<>();
+		for (Candidate c : accepted)
+			plans.add(c.plan);
+		return plans;
+	}
+
+	private static boolean isDifferent(Candidate c, ArrayList<Candidate> accepted, int minDifferent)
+	{
+		for (Candidate other : accepted)
+		{
+			int different = 0;
+			for (long route : c.routes)
+				if (!other.routes.contains(route))
+					++different;
+			if (different < Math.max(1, minDifferent))
+				return false;
+		}
+		return true;
+	}
+
+	// cost of the <need>th cheapest usable plan among those queued and just solved (anything dearer can't make the cut)
+	// plans we already have, or already have queued, don't count
+	private static int kthCost(PriorityQueue<Candidate> queue, Candidate[] solved, ArrayList<Candidate> accepted, int minDifferent, int need)
+	{
+		ArrayList<Candidate> all = new ArrayList<>(queue);
+		for (Candidate c : solved)
+			if (c != null)
+				all.add(c);
+		ArrayList<Integer> costs = new ArrayList<>();
+		HashSet<TreeSet<Long>> distinct = new HashSet<>();
+		for (Candidate c : all)
+			if (distinct.add(c.routes) && isDifferent(c, accepted, minDifferent))
+				costs.add(c.plan.first());
+		if (costs.size() < need)
+			return Integer.MAX_VALUE;
+		Collections.sort(costs);
+		return costs.get(need - 1);
+	}
+
+	private Candidate solveBranch(TreeSet<Long> excluded)
+	{
+		long[] packed = new long[excluded.size()];
+		int i = 0;
+		for (long route : excluded)
+			packed[i++] = route;
+		SteinerMehlhorn mehlhorn = scratch.get();
+		int cost = mehlhorn.solve(model, terminals, terminals.length, packed, packed.length);
+		if (cost < 0)
+			return null; // no way round the excluded routes
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>(mehlhorn.routeCount());
+		for (int r = 0; r < mehlhorn.routeCount(); ++r)
+			routes.add(new OrderedTriple<>(mehlhorn.routeFrom(r), mehlhorn.routeTo(r), 0));
+		return new Candidate(new Pair<>(cost, routes), excluded);
+	}
+
+	private class BranchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int CHUNK = 4;
+		private final ArrayList<TreeSet<Long>> branches;
+		private final Candidate[] solved;
+		private final int from, to;
+
+		BranchTask(ArrayList<TreeSet<Long>> branches, Candidate[] solved, int from, int to)
+		{
+			this.branches = branches;
+			this.solved = solved;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from <= CHUNK)
+			{
+				for (int i = from; i < to; ++i)
+					solved[i] = solveBranch(branches.get(i));
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new BranchTask(branches, solved, from, mid), new BranchTask(branches, solved, mid, to));
+		}
+	}
+}
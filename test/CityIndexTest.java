@@ -0,0 +1,109 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the trie against a linear scan over the names: id, contains, complete and countPrefix for every prefix of every
+// city name on usa.txt and eu.txt, and for random near misses (a character changed, added or dropped), plus a big
+// random name set whose names share long prefixes and include each other
+public class CityIndexTest
+{
+	@Test
+	public void matchesLinearScanOnMaps() throws Exception
+	{
+		Random random = new Random(15);
+		for (String file : new String[] { "usa.txt", "eu.txt" })
+		{
+			CityIndex index = GameMap.load(file).getCities();
+			String[] names = new String[index.size()];
+			for (int i = 0; i < names.length; ++i)
+				names[i] = index.name(i);
+			check(index, names, random);
+		}
+	}
+
+	@Test
+	public void matchesLinearScanOnRandomNames()
+	{
+		Random random = new Random(16);
+		for (int round = 0; round < 20; ++round)
+		{
+			TreeSet<String> set = new TreeSet<>();
+			int n = random.nextInt(2000);
+			while (set.size() < n)
+			{
+				// few letters, so names pile up under the same prefixes, and some names are prefixes of others
+				StringBuilder name = new StringBuilder();
+				for (int len = random.nextInt(8); len >= 0; --len)
+					name.append((char) ('a' + random.nextInt(3)));
+				set.add(name.toString());
+			}
+			ArrayList<String> shuffled = new ArrayList<>(set);
+			Collections.shuffle(shuffled, random);
+			String[] names = shuffled.toArray(new String[0]);
+			check(new CityIndex(names), names, random);
+		}
+	}
+
+	@Test
+	public void emptyAndDuplicateNames()
+	{
+		CityIndex empty = new CityIndex(new String[0]);
+		assertEquals(-1, empty.id(""));
+		assertEquals(-1, empty.id("a"));
+		assertNull(empty.complete(""));
+		assertEquals(0, empty.countPrefix(""));
+		assertThrows(IllegalArgumentException.class, () -> new CityIndex(new String[] { "b", "a", "b" }));
+	}
+
+	private static void check(CityIndex index, String[] names, Random random)
+	{
+		assertEquals(names.length, index.size());
+		String[] sorted = names.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < names.length; ++i)
+		{
+			assertEquals(names[i], index.name(i));
+			assertEquals(sorted[i], index.sortedName(i));
+			assertEquals(sorted[i], names[index.sortedId(i)]);
+		}
+
+		TreeSet<String> queries = new TreeSet<>();
+		queries.add("");
+		for (String name : names)
+		{
+			for (int len = 0; len <= name.length(); ++len)
+				queries.add(name.substring(0, len));
+			if (name.isEmpty())
+				continue;
+			// near misses
+			int at = random.nextInt(name.length());
+			char c = (char) ('a' + random.nextInt(27)); // '{' (just past 'z') as well
+			queries.add(name.substring(0, at) + c + name.substring(at + 1));
+			queries.add(name.substring(0, at) + c + name.substring(at));
+			queries.add(name.substring(0, at) + name.substring(at + 1));
+			queries.add(name + c);
+		}
+		for (String query : queries)
+		{
+			int id = -1, count = 0;
+			String first = null;
+			for (int i = 0; i < names.length; ++i)
+			{
+				if (names[i].equals(query))
+					id = i;
+				if (names[i].startsWith(query))
+				{
+					++count;
+					if (first == null || names[i].compareTo(first) < 0)
+						first = names[i];
+				}
+			}
+			assertEquals(id, index.id(query), query);
+			assertEquals(id >= 0, index.contains(query), query);
+			assertEquals(count, index.countPrefix(query), query);
+			assertEquals(first, index.complete(query), query); // the name itself comes first if it is one
+		}
+	}
+}
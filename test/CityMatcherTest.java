@@ -0,0 +1,197 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// BK-tree lookups against a linear scan over every name (Levenshtein by the full table, not the rolling rows), on
+// usa.txt and eu.txt and on random names: misspellings of each city by up to three edits, at the default bound
+// (max(1, len / 4)) and at explicit ones, have to find exactly the cities within the bound, closest first, then
+// alphabetically; halfway between two cities (half the edits of one into the other), a query lands equally close to
+// both, which the CLI reports as ambiguous
+public class CityMatcherTest
+{
+	@Test
+	public void matchesLinearScanOnMaps() throws Exception
+	{
+		Random random = new Random(17);
+		for (String file : new String[] { "usa.txt", "eu.txt" })
+		{
+			CityIndex index = GameMap.load(file).getCities();
+			String[] names = new String[index.size()];
+			for (int i = 0; i < names.length; ++i)
+				names[i] = index.name(i);
+			int ambiguous = check(new CityMatcher(index), names, random, "abcdefghijklmnopqrstuvwxyz");
+			assertTrue(ambiguous > 0, file);
+		}
+	}
+
+	@Test
+	public void matchesLinearScanOnRandomNames()
+	{
+		Random random = new Random(18);
+		for (int round = 0; round < 8; ++round)
+		{
+			TreeSet<String> set = new TreeSet<>();
+			int n = 1 + random.nextInt(300);
+			while (set.size() < n)
+			{
+				StringBuilder name = new StringBuilder();
+				for (int len = 1 + random.nextInt(12); len > 0; --len)
+					name.append((char) ('a' + random.nextInt(4)));
+				set.add(name.toString());
+			}
+			ArrayList<String> shuffled = new ArrayList<>(set);
+			Collections.shuffle(shuffled, random);
+			String[] names = shuffled.toArray(new String[0]);
+			check(new CityMatcher(new CityIndex(names)), names, random, "abcde");
+		}
+	}
+
+	@Test
+	public void defaultBound()
+	{
+		assertEquals(1, CityMatcher.defaultBound(""));
+		assertEquals(1, CityMatcher.defaultBound("abcdefg"));
+		assertEquals(2, CityMatcher.defaultBound("abcdefgh"));
+		assertEquals(3, CityMatcher.defaultBound("abcdefghijklm"));
+	}
+
+	// returns how many queries had several closest cities
+	private static int check(CityMatcher matcher, String[] names, Random random, String alphabet)
+	{
+		ArrayList<String> queries = new ArrayList<>();
+		for (String name : names)
+			for (int edits = 0; edits <= 3; ++edits)
+				queries.add(misspell(name, edits, random, alphabet));
+		// halfway between close pairs (every one on the maps, a sample of two per name where names are crowded)
+		ArrayList<String> between = new ArrayList<>();
+		for (String a : names)
+			for (String b : names)
+				if (a.compareTo(b) < 0 && levenshtein(a, b) <= 4)
+					between.add(halfway(a, b));
+		Collections.shuffle(between, random);
+		queries.addAll(between.subList(0, Math.min(between.size(), 2 * names.length)));
+
+		int ambiguous = 0;
+		for (String query : queries)
+		{
+			ArrayList<CityMatcher.Match> found = matcher.candidates(query);
+			ArrayList<String> expected = scan(names, query, CityMatcher.defaultBound(query));
+			assertEquals(expected, describe(found), query);
+			if (found.size() > 1 && found.get(1).distance == found.get(0).distance)
+				++ambiguous;
+			for (CityMatcher.Match m : found)
+				assertEquals(names[m.id], m.name);
+
+			int bound = random.nextInt(4);
+			assertEquals(scan(names, query, bound), describe(matcher.candidates(query, bound)), query + " within " + bound);
+		}
+		return ambiguous;
+	}
+
+	// the cities within <bound> of <query>, closest first, then alphabetically, as "name:distance"
+	private static ArrayList<String> scan(String[] names, String query, int bound)
+	{
+		ArrayList<String[]> within = new ArrayList<>();
+		for (String name : names)
+		{
+			int d = levenshtein(query, name);
+			if (d <= bound)
+				within.add(new String[] { name, Integer.toString(d) });
+		}
+		within.sort((x, y) -> !x[1].equals(y[1]) ? Integer.compare(Integer.parseInt(x[1]), Integer.parseInt(y[1])) : x[0].compareTo(y[0]));
+		ArrayList<String> result = new ArrayList<>();
+		for (String[] m : within)
+			result.add(m[0] + ":" + m[1]);
+		return result;
+	}
+
+	private static ArrayList<String> describe(ArrayList<CityMatcher.Match> matches)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		for (CityMatcher.Match m : matches)
+			result.add(m.name + ":" + m.distance);
+		return result;
+	}
+
+	// <a> with the first half (rounded down) of the edits that turn it into <b>
+	private static String halfway(String a, String b)
+	{
+		int[][] d = table(a, b);
+		// walk an optimal alignment back from the end, collecting the edits, then apply the first half of them
+		ArrayList<int[]> edits = new ArrayList<>(); // {i, j, op}: 0 substitute a[i - 1] by b[j - 1], 1 insert b[j - 1], 2 delete a[i - 1]
+		int i = a.length(), j = b.length();
+		while (i > 0 || j > 0)
+		{
+			if (i > 0 && j > 0 && d[i][j] == d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1))
+			{
+				if (a.charAt(i - 1) != b.charAt(j - 1))
+					edits.add(new int[] { i, j, 0 });
+				--i;
+				--j;
+			}
+			else if (j > 0 && d[i][j] == d[i][j - 1] + 1)
+			{
+				edits.add(new int[] { i, j, 1 });
+				--j;
+			}
+			else
+			{
+				edits.add(new int[] { i, j, 2 });
+				--i;
+			}
+		}
+		// the edits come out from the back of <a>, so applying them in that order leaves earlier positions alone
+		StringBuilder s = new StringBuilder(a);
+		for (int e = 0; e < edits.size() / 2; ++e)
+		{
+			int[] edit = edits.get(e);
+			if (edit[2] == 0)
+				s.setCharAt(edit[0] - 1, b.charAt(edit[1] - 1));
+			else if (edit[2] == 1)
+				s.insert(edit[0], b.charAt(edit[1] - 1));
+			else
+				s.deleteCharAt(edit[0] - 1);
+		}
+		return s.toString();
+	}
+
+	// <name> with <edits> random substitutions, insertions and deletions
+	private static String misspell(String name, int edits, Random random, String alphabet)
+	{
+		StringBuilder s = new StringBuilder(name);
+		for (int e = 0; e < edits; ++e)
+		{
+			char c = alphabet.charAt(random.nextInt(alphabet.length()));
+			int op = s.length() == 0 ? 1 : random.nextInt(3);
+			int at = random.nextInt(s.length() + (op == 1 ? 1 : 0));
+			if (op == 0)
+				s.setCharAt(at, c);
+			else if (op == 1)
+				s.insert(at, c);
+			else
+				s.deleteCharAt(at);
+		}
+		return s.toString();
+	}
+
+	private static int levenshtein(String a, String b)
+	{
+		return table(a, b)[a.length()][b.length()];
+	}
+
+	// d[i][j]: edits between the first i chars of <a> and the first j of <b>
+	private static int[][] table(String a, String b)
+	{
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); ++i)
+			d[i][0] = i;
+		for (int j = 0; j <= b.length(); ++j)
+			d[0][j] = j;
+		for (int i = 1; i <= a.length(); ++i)
+			for (int j = 1; j <= b.length(); ++j)
+				d[i][j] = Math.min(d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1), Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+		return d;
+	}
+}
@@ -0,0 +1,135 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// repaired tables against Floyd-Warshall rebuilt from scratch, entry for entry (distances, next hops and vias), over
+// random maps and random block / unblock / add / remove / reweigh sequences
+// weights are small so that shortest paths tie all the time, which is where a repair could pick another next hop
+public class IncrementalAPSPTest
+{
+	private static final int INF = Ticket2Ride.INF;
+
+	@Test
+	public void repairsMatchRebuild()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 300; ++round)
+			run(random, 2 + random.nextInt(30), 40);
+	}
+
+	@Test
+	public void repairsMatchRebuildOnBiggerMaps()
+	{
+		Random random = new Random(2);
+		for (int round = 0; round < 10; ++round)
+			run(random, 60 + random.nextInt(60), 30);
+	}
+
+	// one random map and <steps> weight changes on it, each repaired on a copy of the previous table
+	private static void run(Random random, int n, int steps)
+	{
+		int[][] original = randomMap(random, n);
+		int[][] adjMat = new int[n][];
+		for (int i = 0; i < n; ++i)
+			adjMat[i] = original[i].clone();
+
+		int[][][] expected = rebuild(adjMat);
+		DistanceTable base = random.nextBoolean()
+			? new CompactDistanceTable(expected[0], expected[1], expected[2])
+			: new ArrayDistanceTable(expected[0], expected[1], expected[2]);
+		assertMatches(expected, base);
+
+		DistanceTable table = base;
+		for (int step = 0; step < steps; ++step)
+		{
+			int a = random.nextInt(n), b = random.nextInt(n);
+			if (a == b)
+				continue;
+			int oldW = adjMat[a][b];
+			int newW;
+			switch (random.nextInt(4))
+			{
+				case 0: // block / unblock
+					if (original[a][b] == 0)
+						continue;
+					newW = oldW == original[a][b] ? oldW + 1000000 : original[a][b];
+					break;
+				case 1: // add / remove a route
+					newW = oldW == 0 ? 1 + random.nextInt(4) : 0;
+					break;
+				default: // reweigh
+					newW = 1 + random.nextInt(4);
+					break;
+			}
+			if (newW == oldW)
+				continue;
+			adjMat[a][b] = newW;
+			adjMat[b][a] = newW;
+
+			SessionDistanceTable repaired = SessionDistanceTable.over(table);
+			if (newW == 0 || (oldW != 0 && newW > oldW))
+				IncrementalAPSP.edgeIncreased(adjMat, repaired, a, b, oldW);
+			else
+				IncrementalAPSP.edgeDecreased(adjMat, repaired, a, b);
+
+			int[][][] rebuilt = rebuild(adjMat);
+			assertMatches(rebuilt, repaired);
+			assertMatches(expected, table); // the table repaired from is left as it was
+			expected = rebuilt;
+			table = repaired;
+		}
+	}
+
+	// connected-ish random map: a spanning path over shuffled cities plus extra routes, sometimes split in two
+	private static int[][] randomMap(Random random, int n)
+	{
+		int[][] adjMat = new int[n][n];
+		ArrayList<Integer> cities = new ArrayList<>();
+		for (int i = 0; i < n; ++i)
+			cities.add(i);
+		Collections.shuffle(cities, random);
+		int split = random.nextInt(4) == 0 ? random.nextInt(n) : -1;
+		for (int i = 1; i < n; ++i)
+			if (i != split)
+				connect(adjMat, cities.get(i - 1), cities.get(i), 1 + random.nextInt(4));
+		for (int e = random.nextInt(2 * n + 1); e > 0; --e)
+		{
+			int a = random.nextInt(n), b = random.nextInt(n);
+			if (a != b && (split < 0 || (cities.indexOf(a) < split) == (cities.indexOf(b) < split)))
+				connect(adjMat, a, b, 1 + random.nextInt(4));
+		}
+		return adjMat;
+	}
+
+	private static void connect(int[][] adjMat, int a, int b, int w)
+	{
+		adjMat[a][b] = w;
+		adjMat[b][a] = w;
+	}
+
+	private static int[][][] rebuild(int[][] adjMat)
+	{
+		int n = adjMat.length;
+		int[][] apsp = new int[n][n], path = new int[n][n], via = new int[n][n];
+		GameMap.floydWarshallSimple(adjMat, apsp, path, via);
+		return new int[][][] { apsp, path, via };
+	}
+
+	private static void assertMatches(int[][][] expected, DistanceTable table)
+	{
+		int n = expected[0].length;
+		for (int i = 0; i < n; ++i)
+		{
+			for (int j = 0; j < n; ++j)
+			{
+				int d = expected[0][i][j];
+				assertEquals(d, table.distance(i, j), String.format("distance %d-%d", i, j));
+				assertEquals(expected[1][i][j], table.nextHop(i, j), String.format("next hop %d-%d (distance %d)", i, j, d));
+				assertEquals(expected[2][i][j], table.via(i, j), String.format("via %d-%d (distance %d)", i, j, d));
+				assertTrue(d <= INF);
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the live approximate tree against a fresh SteinerApprox solve of every published snapshot, over random batches of
+// ticket adds and removes, blocks, unblocks and resets on random maps (dense mode, where the tree is kept live)
+// checked both through the session (which answers from its own live tree) and on a tree synced here, whose
+// Result has to be there for every snapshot published with tables
+public class IncrementalSteinerTest
+{
+	@TempDir
+	Path dir;
+
+	@Test
+	public void liveTreeMatchesFreshSolve() throws Exception
+	{
+		Random random = new Random(10);
+		int unreachable = 0;
+		for (int round = 0; round < 40; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 2 + random.nextInt(30), false));
+			IncrementalSteiner live = new IncrementalSteiner();
+			int n = session.getMap().size();
+			SparseGraph graph = session.getMap().getGraph();
+			for (int publish = 0; publish < 40; ++publish)
+			{
+				for (int change = random.nextInt(4); change > 0; --change)
+				{
+					int a = random.nextInt(n), b = random.nextInt(n);
+					String cityA = RandomMaps.name(session, a), cityB = RandomMaps.name(session, b);
+					try
+					{
+						switch (random.nextInt(10))
+						{
+							case 0: case 1: case 2: case 3:
+								session.addTicket(cityA, cityB);
+								break;
+							case 4: case 5:
+								Ticket[] tickets = session.getTicketSet().toArray(new Ticket[0]);
+								if (tickets.length > 0)
+								{
+									Ticket t = tickets[random.nextInt(tickets.length)];
+									session.removeTicket(RandomMaps.name(session, t.aIdx()), RandomMaps.name(session, t.bIdx()));
+								}
+								break;
+							case 6: case 7: case 8:
+								if (graph.degree(a) > 0)
+								{
+									String neighbour = RandomMaps.name(session, graph.neighbour(a, random.nextInt(graph.degree(a))));
+									session.blockRoute(random.nextInt(3) != 0, cityA, neighbour);
+								}
+								break;
+							default:
+								if (random.nextInt(4) == 0)
+									session.resetModel();
+								break;
+						}
+					} catch (Exception ex) {
+						// same cities, ticket already there or gone since the last publish, route already (un)blocked
+					}
+				}
+
+				SessionSnapshot model = session.publish(random.nextInt(5) != 0);
+				if (!model.hasTables())
+					continue;
+				live.sync(model);
+				IncrementalSteiner.Result result = live.resultFor(model);
+				assertNotNull(result);
+				String what = model.getTicketSet() + " blocked " + model.getBlockedRoutes();
+
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> fresh;
+				try
+				{
+					fresh = model.steinerTreeApprox();
+				} catch (Exception ex) {
+					assertTrue(ex.getMessage().contains("Unable to connect"), ex.getMessage());
+					assertNull(result.routes, what);
+					assertThrows(Exception.class, session::steinerTreeApprox, what);
+					++unreachable;
+					continue;
+				}
+				assertNotNull(result.routes, what);
+				assertEquals(fresh.first(), result.routes.first(), what);
+				assertEquals(fresh.second().toString(), result.routes.second().toString(), what);
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> viaSession = session.steinerTreeApprox();
+				assertEquals(fresh.first(), viaSession.first(), what);
+				assertEquals(fresh.second().toString(), viaSession.second().toString(), what);
+			}
+			assertEquals(0, session.getPathCache().misses()); // every answer came from the session's live tree
+		}
+		assertTrue(unreachable > 0); // the blocks cut some hands off
+	}
+}
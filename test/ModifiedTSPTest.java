@@ -0,0 +1,233 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the modified TSP against brute force on small random maps with random blocks
+// Held-Karp (up to MAX_EXACT cities): every ordering of the ticket cities is tried; the answer has to come from an
+// ordering of least closure length, costing what walking it claims (routes walked twice are paid once)
+// the heuristic (more cities): no worse than the best nearest neighbour ordering it starts from, and no better than
+// half the closure MST, whatever the time budget
+// either way the routes have to be real and join every ticket city
+public class ModifiedTSPTest
+{
+	@TempDir
+	Path dir;
+
+	@Test
+	public void heldKarpMatchesBruteForce() throws Exception
+	{
+		Random random = new Random(5);
+		int unreachable = 0;
+		for (int round = 0; round < 60; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 2 + random.nextInt(12), round % 3 == 0));
+			for (int hand = 0; hand < 10; ++hand)
+			{
+				SessionSnapshot model = RandomMaps.hand(session, random, random.nextInt(5), random.nextInt(3));
+				int[] terminals = model.terminals();
+				assertTrue(terminals.length <= ModifiedTSP.MAX_EXACT);
+				String what = model.getTicketSet() + " blocked " + model.getBlockedRoutes();
+
+				// walk costs of every ordering of least closure length
+				long best = Long.MAX_VALUE;
+				TreeSet<Long> walks = new TreeSet<>();
+				for (int[] order : permutations(terminals.length))
+				{
+					long length = closureLength(model, terminals, order);
+					if (length < best)
+					{
+						best = length;
+						walks.clear();
+					}
+					if (length == best)
+						walks.add(walkCost(model, terminals, order));
+				}
+
+				if (terminals.length > 1 && best >= 1000000)
+				{
+					Exception ex = assertThrows(Exception.class, () -> model.modifiedTSP(1000), what);
+					assertTrue(ex.getMessage().contains("Unable to connect"), ex.getMessage());
+					++unreachable;
+					continue;
+				}
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = model.modifiedTSP(1000);
+				assertTrue(walks.contains((long) result.first()), what + ": " + result.first() + " not in " + walks);
+				checkRoutes(model, terminals, result);
+			}
+		}
+		assertTrue(unreachable > 0); // the blocks cut some hands off
+	}
+
+	@Test
+	public void heuristicStaysInBounds() throws Exception
+	{
+		Random random = new Random(6);
+		int runs = 0;
+		for (int round = 0; round < 20; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 25 + random.nextInt(20), round % 2 == 0));
+			SessionSnapshot model = RandomMaps.hand(session, random, 15 + random.nextInt(10), 0);
+			int[] terminals = model.terminals();
+			if (terminals.length <= ModifiedTSP.MAX_EXACT)
+				continue;
+			++runs;
+			long nearest = Long.MAX_VALUE;
+			for (int start = 0; start < terminals.length; ++start)
+				nearest = Math.min(nearest, closureLength(model, terminals, nearestNeighbour(model, terminals, start)));
+			long lower = (closureMST(model, terminals) + 1) / 2;
+
+			for (long budget : new long[] { 0, 1000 })
+			{
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = model.modifiedTSP(budget);
+				if (budget > 0)
+					assertTrue(result.first() <= nearest, result.first() + " > " + nearest);
+				assertTrue(result.first() >= lower, result.first() + " < " + lower);
+				checkRoutes(model, terminals, result);
+			}
+		}
+		assertTrue(runs > 10);
+	}
+
+	@Test
+	public void nothingToVisit() throws Exception
+	{
+		Random random = new Random(7);
+		Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 5, false));
+		SessionSnapshot model = session.publish(true);
+		for (int[] terminals : new int[][] { {}, { 3 } })
+		{
+			Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = new ModifiedTSP(model, terminals, 1000).solve();
+			assertEquals(0, (int) result.first());
+			assertTrue(result.second().isEmpty());
+		}
+	}
+
+	// real routes, adding up to the cost, joining every ticket city
+	private static void checkRoutes(SessionSnapshot model, int[] terminals, Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result)
+	{
+		int n = model.getGraph().size();
+		int[] parent = new int[n];
+		for (int i = 0; i < n; ++i)
+			parent[i] = i;
+		int cost = 0;
+		for (OrderedTriple<Integer, Integer, Integer> route : result.second())
+		{
+			int w = model.edgeWeight(route.first(), route.second());
+			assertTrue(w > 0, "no route " + route);
+			cost += w;
+			parent[find(parent, route.first())] = find(parent, route.second());
+		}
+		assertEquals((int) result.first(), cost);
+		for (int t : terminals)
+			assertEquals(find(parent, terminals[0]), find(parent, t));
+	}
+
+	// sum of shortest path lengths between consecutive cities of <order>
+	private static long closureLength(SessionSnapshot model, int[] terminals, int[] order)
+	{
+		long length = 0;
+		for (int i = 0; i + 1 < order.length; ++i)
+			length += model.distance(terminals[order[i]], terminals[order[i + 1]]);
+		return length;
+	}
+
+	// what walking <order> along next hops costs, each route paid the first time only
+	private static long walkCost(SessionSnapshot model, int[] terminals, int[] order)
+	{
+		TreeSet<Long> claimed = new TreeSet<>();
+		long cost = 0;
+		for (int i = 0; i + 1 < order.length; ++i)
+		{
+			int u = terminals[order[i]], target = terminals[order[i + 1]];
+			while (u != target)
+			{
+				int v = model.nextHop(u, target);
+				if (v == -1)
+					return Long.MAX_VALUE;
+				if (claimed.add((long) Math.min(u, v) << 32 | Math.max(u, v)))
+					cost += model.edgeWeight(u, v);
+				u = v;
+			}
+		}
+		return cost;
+	}
+
+	private static int[] nearestNeighbour(SessionSnapshot model, int[] terminals, int start)
+	{
+		int k = terminals.length;
+		int[] order = new int[k];
+		boolean[] used = new boolean[k];
+		order[0] = start;
+		used[start] = true;
+		for (int pos = 1; pos < k; ++pos)
+		{
+			int from = terminals[order[pos - 1]], pick = -1;
+			for (int j = 0; j < k; ++j)
+				if (!used[j] && (pick == -1 || model.distance(from, terminals[j]) < model.distance(from, terminals[pick])))
+					pick = j;
+			order[pos] = pick;
+			used[pick] = true;
+		}
+		return order;
+	}
+
+	// Prim over the shortest path lengths between ticket cities
+	private static long closureMST(SessionSnapshot model, int[] terminals)
+	{
+		int k = terminals.length;
+		long[] d = new long[k];
+		Arrays.fill(d, Long.MAX_VALUE);
+		boolean[] in = new boolean[k];
+		d[0] = 0;
+		long total = 0;
+		for (int left = k; left > 0; --left)
+		{
+			int u = -1;
+			for (int v = 0; v < k; ++v)
+				if (!in[v] && (u == -1 || d[v] < d[u]))
+					u = v;
+			in[u] = true;
+			total += d[u];
+			for (int v = 0; v < k; ++v)
+				if (!in[v])
+					d[v] = Math.min(d[v], model.distance(terminals[u], terminals[v]));
+		}
+		return total;
+	}
+
+	private static ArrayList<int[]> permutations(int k)
+	{
+		ArrayList<int[]> all = new ArrayList<>();
+		permute(new int[k], new boolean[k], 0, all);
+		return all;
+	}
+
+	private static void permute(int[] order, boolean[] used, int pos, ArrayList<int[]> all)
+	{
+		if (pos == order.length)
+		{
+			all.add(order.clone());
+			return;
+		}
+		for (int i = 0; i < order.length; ++i)
+		{
+			if (used[i])
+				continue;
+			used[i] = true;
+			order[pos] = i;
+			permute(order, used, pos + 1, all);
+			used[i] = false;
+		}
+	}
+
+	private static int find(int[] parent, int x)
+	{
+		while (parent[x] != x)
+			x = parent[x] = parent[parent[x]];
+		return x;
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the path cache on snapshots of a real session over usa.txt, with counting stand-in solvers:
+// hits skip the solver, the least recently used entry goes first, equal hashes never mix up results,
+// only "Unable to connect" failures are remembered, and nothing a caller does to a result reaches the cache
+public class PathCacheTest
+{
+	@Test
+	public void hitsSkipTheSolver() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(8);
+		int[] calls = new int[1];
+		SessionSnapshot model = withTicket(session, 0, 1);
+
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> first = cache.get("MST", model, counting(calls, 7));
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> second = cache.get("MST", model, counting(calls, 8));
+		assertEquals(1, calls[0]);
+		assertEquals(7, (int) second.first());
+		assertEquals(first.second().toString(), second.second().toString());
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+
+		// same tickets under another algorithm, or the same route blocked instead of wanted, is another question
+		cache.get("TSP", model, counting(calls, 9));
+		session.removeTicket(name(session, 0), name(session, 1));
+		session.blockRoute(true, name(session, 0), name(session, 1));
+		cache.get("MST", session.publish(), counting(calls, 10));
+		assertEquals(3, calls[0]);
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(3);
+		int[] calls = new int[1];
+		SessionSnapshot[] models = new SessionSnapshot[4];
+		for (int i = 0; i < 4; ++i)
+			models[i] = withTicket(session, i, i + 1);
+
+		for (int i = 0; i < 3; ++i)
+			cache.get("MST", models[i], counting(calls, i));
+		cache.get("MST", models[0], counting(calls, -1)); // 0 is now the most recent, 1 the least
+		assertEquals(0, cache.evictions());
+		cache.get("MST", models[3], counting(calls, 3));
+		assertEquals(1, cache.evictions());
+		assertEquals(3, cache.size());
+		assertEquals(4, calls[0]);
+
+		// 0, 2 and 3 are still there, 1 has to be solved again
+		assertEquals(0, (int) cache.get("MST", models[0], counting(calls, -1)).first());
+		assertEquals(2, (int) cache.get("MST", models[2], counting(calls, -1)).first());
+		assertEquals(3, (int) cache.get("MST", models[3], counting(calls, -1)).first());
+		assertEquals(4, calls[0]);
+		assertEquals(11, (int) cache.get("MST", models[1], counting(calls, 11)).first());
+		assertEquals(5, calls[0]);
+		assertEquals(2, cache.evictions());
+	}
+
+	@Test
+	public void collidingKeysAreToldApart() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(8)
+		{
+			long hash(long[] key) { return 42; } // every key on the same slot
+		};
+		int[] calls = new int[1];
+		SessionSnapshot a = withTicket(session, 0, 1), b = withTicket(session, 2, 3);
+
+		assertEquals(1, (int) cache.get("MST", a, counting(calls, 1)).first());
+		assertEquals(2, (int) cache.get("MST", b, counting(calls, 2)).first());
+		assertEquals(3, (int) cache.get("MST", a, counting(calls, 3)).first());
+		assertEquals(3, (int) cache.get("MST", a, counting(calls, -1)).first());
+		assertEquals(3, calls[0]);
+		assertEquals(1, cache.hits());
+	}
+
+	@Test
+	public void unreachableIsRemembered() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(8);
+		int[] calls = new int[1];
+		SessionSnapshot model = withTicket(session, 0, 1);
+		PathCache.Solver failing = () ->
+		{
+			++calls[0];
+			throw new Exception("Unable to connect all cities");
+		};
+
+		for (int i = 0; i < 3; ++i)
+		{
+			Exception ex = assertThrows(Exception.class, () -> cache.get("MST", model, failing));
+			assertEquals("Unable to connect all cities", ex.getMessage());
+		}
+		assertEquals(1, calls[0]);
+		assertEquals(2, cache.hits());
+	}
+
+	@Test
+	public void otherFailuresAreNot() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(8);
+		int[] calls = new int[1];
+		SessionSnapshot model = withTicket(session, 0, 1);
+		PathCache.Solver failing = () ->
+		{
+			++calls[0];
+			throw new Exception("2: Map too big for exact solver");
+		};
+
+		assertThrows(Exception.class, () -> cache.get("SLOW", model, failing));
+		assertThrows(Exception.class, () -> cache.get("SLOW", model, failing));
+		assertEquals(2, calls[0]);
+		assertEquals(0, cache.size());
+		assertEquals(5, (int) cache.get("SLOW", model, counting(calls, 5)).first());
+		assertEquals(3, calls[0]);
+	}
+
+	@Test
+	public void callersCannotChangeTheCache() throws Exception
+	{
+		Ticket2Ride session = session();
+		PathCache cache = new PathCache(8);
+		int[] calls = new int[1];
+		SessionSnapshot model = withTicket(session, 0, 1);
+
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> miss = cache.get("MST", model, counting(calls, 7));
+		String routes = miss.second().toString();
+		miss.second().clear();
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> hit = cache.get("MST", model, counting(calls, -1));
+		assertEquals(routes, hit.second().toString());
+		hit.second().remove(0);
+		assertEquals(routes, cache.get("MST", model, counting(calls, -1)).second().toString());
+		assertEquals(1, calls[0]);
+	}
+
+	private static Ticket2Ride session() throws Exception
+	{
+		return new Ticket2Ride(GameMap.load("usa.txt"));
+	}
+
+	private static String name(Ticket2Ride session, int id)
+	{
+		return session.getCities().name(id);
+	}
+
+	// <session> with only the ticket between cities <a> and <b>, published
+	private static SessionSnapshot withTicket(Ticket2Ride session, int a, int b) throws Exception
+	{
+		session.resetModel();
+		session.addTicket(name(session, a), name(session, b));
+		return session.publish();
+	}
+
+	// a solver answering <cost> with two routes, counting its runs in <calls>
+	private static PathCache.Solver counting(int[] calls, int cost)
+	{
+		return () ->
+		{
+			++calls[0];
+			ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>();
+			routes.add(new OrderedTriple<>(0, 1, cost));
+			routes.add(new OrderedTriple<>(1, 2, cost));
+			return new Pair<>(cost, routes);
+		};
+	}
+}
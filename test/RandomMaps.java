@@ -0,0 +1,70 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// small random maps for the solver tests, written out as text maps and loaded the way usa.txt is,
+// and random hands (tickets and blocked routes) on sessions over them
+class RandomMaps
+{
+	private static int written = 0;
+
+	// <n> connected cities: a spanning path over shuffled cities plus extra routes, weights 1-4 so that costs tie often
+	static GameMap map(Path dir, Random random, int n, boolean sparse) throws IOException
+	{
+		ArrayList<Integer> cities = new ArrayList<>();
+		for (int i = 0; i < n; ++i)
+			cities.add(i);
+		Collections.shuffle(cities, random);
+		TreeSet<Long> routes = new TreeSet<>();
+		StringBuilder text = new StringBuilder().append(n).append('\n');
+		for (int i = 1; i < n; ++i)
+			route(text, routes, cities.get(i - 1), cities.get(i), 1 + random.nextInt(4));
+		for (int e = random.nextInt(n + 1); e > 0; --e)
+			route(text, routes, random.nextInt(n), random.nextInt(n), 1 + random.nextInt(4));
+
+		Path file = dir.resolve("map" + (written++) + ".txt");
+		Files.write(file, text.toString().getBytes());
+		return GameMap.load(file.toString(), sparse);
+	}
+
+	private static void route(StringBuilder text, TreeSet<Long> routes, int a, int b, int w)
+	{
+		if (a == b || !routes.add((long) Math.min(a, b) << 32 | Math.max(a, b)))
+			return;
+		text.append("city").append(a).append(" city").append(b).append(' ').append(w).append('\n');
+	}
+
+	// <session> reset to <tickets> random tickets and <blocks> random blocked routes, published (with tables in dense mode)
+	static SessionSnapshot hand(Ticket2Ride session, Random random, int tickets, int blocks) throws Exception
+	{
+		session.resetModel();
+		int n = session.getMap().size();
+		TreeSet<Long> pairs = new TreeSet<>();
+		for (int t = 0; t < tickets; ++t)
+		{
+			int a = random.nextInt(n), b = random.nextInt(n);
+			if (a != b && pairs.add((long) Math.min(a, b) << 32 | Math.max(a, b)))
+				session.addTicket(name(session, a), name(session, b), 1 + random.nextInt(20));
+		}
+		SparseGraph graph = session.getMap().getGraph();
+		for (int x = 0; x < blocks; ++x)
+		{
+			int a = random.nextInt(n);
+			if (graph.degree(a) == 0)
+				continue;
+			int b = graph.neighbour(a, random.nextInt(graph.degree(a)));
+			try
+			{
+				session.blockRoute(true, name(session, a), name(session, b));
+			} catch (Exception ex) {
+				// already blocked
+			}
+		}
+		return session.publish(!session.isSparseMode());
+	}
+
+	static String name(Ticket2Ride session, int id)
+	{
+		return session.getCities().name(id);
+	}
+}
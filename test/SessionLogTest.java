@@ -0,0 +1,345 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// crash recovery over usa.txt: a crash is simulated by copying the log (and its snapshot) while it is still open,
+// after a commit(), and recovering the copy into a fresh session, which has to come back with the same tickets
+// (points included), the same blocked routes and the same shortest path tables, entry for entry
+public class SessionLogTest
+{
+	private static final int HEADER = 24;
+	private static final int RECORD = SessionLog.RECORD;
+
+	@TempDir
+	Path dir;
+
+	private int copies = 0;
+
+	@Test
+	public void recoversAfterCrash() throws Exception
+	{
+		Random random = new Random(11);
+		Ticket2Ride session = session();
+		Path file = dir.resolve("crash.log");
+		SessionLog log = SessionLog.open(file.toString(), session);
+		try
+		{
+			for (int i = 0; i < 60; ++i)
+				change(session, random);
+			session.buildAPSP();
+			log.commit();
+
+			Ticket2Ride recovered = session();
+			SessionLog again = SessionLog.open(crashCopy(file, -1, -1).toString(), recovered);
+			try
+			{
+				assertFalse(again.recoveredFromSnapshot());
+				assertEquals((Files.size(file) - HEADER) / RECORD, again.replayedRecords());
+				assertSameState(session, recovered);
+			} finally {
+				again.close();
+			}
+		} finally {
+			log.close();
+		}
+
+		// a clean close leaves a snapshot covering everything
+		Ticket2Ride reopened = session();
+		SessionLog again = SessionLog.open(file.toString(), reopened);
+		assertTrue(again.recoveredFromSnapshot());
+		assertEquals(0, again.replayedRecords());
+		assertSameState(session, reopened);
+		again.close();
+	}
+
+	@Test
+	public void tornOrCorruptTailIsDropped() throws Exception
+	{
+		Random random = new Random(12);
+		Ticket2Ride session = session();
+		Path file = dir.resolve("torn.log");
+		SessionLog log = SessionLog.open(file.toString(), session);
+		// the state after each record, so that any cut can be checked against the last record before it
+		ArrayList<String> states = new ArrayList<>();
+		states.add(state(session));
+		try
+		{
+			while (states.size() <= 40)
+				if (change(session, random))
+					states.add(state(session));
+			log.commit();
+			long size = Files.size(file);
+			int records = states.size() - 1;
+			assertEquals(HEADER + (long) records * RECORD, size);
+
+			long lastRecord = size - RECORD;
+			for (long at = lastRecord; at <= size; ++at)
+			{
+				// cut the log at <at>: anything short of the whole last record drops it
+				int expected = at == size ? records : records - 1;
+				check(crashCopy(file, at, -1), states.get(expected), expected, lastRecord, at == size);
+				// or keep its length but corrupt one byte of the last record
+				if (at < size)
+					check(crashCopy(file, -1, at), states.get(records - 1), records - 1, lastRecord, false);
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void replaysFromSnapshot() throws Exception
+	{
+		Random random = new Random(13);
+		Ticket2Ride session = session();
+		Path file = dir.resolve("snap.log");
+		Path snap = Paths.get(file + ".snap");
+		SessionLog log = SessionLog.open(file.toString(), session);
+		try
+		{
+			// past SNAPSHOT_EVERY records, then wait for the background snapshot
+			int records = 0;
+			while (records < 300)
+			{
+				if (change(session, random))
+					++records;
+				session.buildAPSP();
+			}
+			for (int wait = 0; !Files.exists(snap) && wait < 1000; ++wait)
+				Thread.sleep(10);
+			assertTrue(Files.exists(snap));
+			for (int extra = 0; extra < 25; )
+				if (change(session, random))
+					++extra;
+			session.buildAPSP();
+			log.commit();
+
+			Path copy = crashCopy(file, -1, -1);
+			long covered = snapshotOffset(Paths.get(copy + ".snap"));
+			assertTrue(covered > HEADER && covered < Files.size(copy));
+			Ticket2Ride recovered = session();
+			SessionLog again = SessionLog.open(copy.toString(), recovered);
+			try
+			{
+				assertTrue(again.recoveredFromSnapshot());
+				assertEquals((Files.size(copy) - covered) / RECORD, again.replayedRecords());
+				assertSameState(session, recovered);
+			} finally {
+				again.close();
+			}
+
+			// a snapshot that doesn't check out is ignored, and the whole log is replayed instead
+			copy = crashCopy(file, -1, -1);
+			Path copySnap = Paths.get(copy + ".snap");
+			byte[] bytes = Files.readAllBytes(copySnap);
+			bytes[bytes.length / 2] ^= 1;
+			Files.write(copySnap, bytes);
+			recovered = session();
+			again = SessionLog.open(copy.toString(), recovered);
+			try
+			{
+				assertFalse(again.recoveredFromSnapshot());
+				assertEquals((Files.size(copy) - HEADER) / RECORD, again.replayedRecords());
+				assertSameState(session, recovered);
+			} finally {
+				again.close();
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void groupCommitKeepsOrder() throws Exception
+	{
+		Ticket2Ride session = session();
+		Path file = dir.resolve("group.log");
+		SessionLog log = SessionLog.open(file.toString(), session);
+		String[] cities = new String[8];
+		for (int i = 0; i < cities.length; ++i)
+			cities[i] = session.getCities().name(i);
+		ArrayList<Throwable> failures = new ArrayList<>();
+		int[] appended = new int[1]; // records so far, guarded by <session>
+		try
+		{
+			// writers toggle tickets from one small pool, so replaying the records in any other order than they were
+			// made would remove a ticket that isn't there; after each commit() the writer's record, and every one
+			// before it, has to be on disk
+			Thread[] writers = new Thread[6];
+			for (int w = 0; w < writers.length; ++w)
+			{
+				Random random = new Random(14 + w);
+				writers[w] = new Thread(() ->
+				{
+					try
+					{
+						for (int i = 0; i < 150; ++i)
+						{
+							int a = random.nextInt(cities.length), b = random.nextInt(cities.length);
+							if (a == b)
+								continue;
+							int mine;
+							synchronized (session)
+							{
+								try
+								{
+									session.addTicket(cities[a], cities[b], 1 + random.nextInt(20));
+								} catch (Exception ex) {
+									session.removeTicket(cities[a], cities[b]);
+								}
+								mine = ++appended[0];
+							}
+							log.commit();
+							assertTrue(Files.size(file) >= HEADER + (long) mine * RECORD);
+							if (random.nextInt(10) == 0)
+								session.publish();
+						}
+					} catch (Throwable ex) {
+						synchronized (failures)
+						{
+							failures.add(ex);
+						}
+					}
+				});
+				writers[w].start();
+			}
+			for (Thread writer : writers)
+				writer.join();
+			assertEquals(Collections.emptyList(), failures);
+			session.buildAPSP();
+			long size = Files.size(file);
+			log.commit();
+			assertEquals(size, Files.size(file)); // nothing was left unwritten
+
+			// (over SNAPSHOT_EVERY records went by, so the copy may start from a snapshot)
+			Path copy = crashCopy(file, -1, -1);
+			Path copySnap = Paths.get(copy + ".snap");
+			long covered = Files.exists(copySnap) ? snapshotOffset(copySnap) : HEADER;
+			Ticket2Ride recovered = session();
+			SessionLog again = SessionLog.open(copy.toString(), recovered);
+			try
+			{
+				assertEquals((size - covered) / RECORD, again.replayedRecords());
+				assertSameState(session, recovered);
+			} finally {
+				again.close();
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	// recovers <copy> into a fresh session and checks it comes back as <state> from <records> records, with the log
+	// cut back to where the last record starts (or kept whole if <whole>)
+	private void check(Path copy, String state, int records, long lastRecord, boolean whole) throws Exception
+	{
+		Ticket2Ride recovered = session();
+		SessionLog log = SessionLog.open(copy.toString(), recovered);
+		try
+		{
+			assertEquals(records, log.replayedRecords(), copy.toString());
+			assertEquals(state, state(recovered), copy.toString());
+			assertEquals(whole ? lastRecord + RECORD : lastRecord, Files.size(copy));
+		} finally {
+			log.close();
+		}
+	}
+
+	private static Ticket2Ride session() throws Exception
+	{
+		return new Ticket2Ride(GameMap.load("usa.txt"));
+	}
+
+	// one random change to <session>; false if it was turned down (and so not logged)
+	private static boolean change(Ticket2Ride session, Random random)
+	{
+		int n = session.getMap().size();
+		String a = session.getCities().name(random.nextInt(n)), b = session.getCities().name(random.nextInt(n));
+		try
+		{
+			switch (random.nextInt(12))
+			{
+				case 0: case 1: case 2: case 3: case 4:
+					session.addTicket(a, b, 1 + random.nextInt(20));
+					break;
+				case 5: case 6:
+					session.publish();
+					Ticket[] tickets = session.getTicketSet().toArray(new Ticket[0]);
+					if (tickets.length == 0)
+						return false;
+					Ticket t = tickets[random.nextInt(tickets.length)];
+					session.removeTicket(session.getCities().name(t.aIdx()), session.getCities().name(t.bIdx()));
+					break;
+				case 7: case 8: case 9: case 10:
+					SparseGraph graph = session.getMap().getGraph();
+					int u = session.getCities().id(a);
+					String neighbour = session.getCities().name(graph.neighbour(u, random.nextInt(graph.degree(u))));
+					session.blockRoute(random.nextInt(3) != 0, a, neighbour);
+					break;
+				default:
+					session.resetModel();
+					break;
+			}
+			return true;
+		} catch (Exception ex) {
+			return false;
+		}
+	}
+
+	// tickets with their points, and blocked routes, as published
+	private static String state(Ticket2Ride session)
+	{
+		SessionSnapshot model = session.publish();
+		StringBuilder s = new StringBuilder();
+		for (Ticket t : model.getTicketSet())
+			s.append(t.aIdx()).append('-').append(t.bIdx()).append(':').append(t.points()).append(' ');
+		s.append("blocked");
+		for (Ticket route : model.getBlockedRoutes())
+			s.append(' ').append(route.aIdx()).append('-').append(route.bIdx());
+		return s.toString();
+	}
+
+	private static void assertSameState(Ticket2Ride expected, Ticket2Ride actual)
+	{
+		assertEquals(state(expected), state(actual));
+		expected.buildAPSP();
+		actual.buildAPSP();
+		DistanceTable e = expected.snapshot().getTable(), a = actual.snapshot().getTable();
+		for (int i = 0; i < e.size(); ++i)
+		{
+			for (int j = 0; j < e.size(); ++j)
+			{
+				assertEquals(e.distance(i, j), a.distance(i, j), String.format("distance %d-%d", i, j));
+				assertEquals(e.nextHop(i, j), a.nextHop(i, j), String.format("next hop %d-%d", i, j));
+				assertEquals(e.via(i, j), a.via(i, j), String.format("via %d-%d", i, j));
+			}
+		}
+	}
+
+	// a copy of <log> and its snapshot, as a crash would leave them: cut to <cut> bytes and with the byte at
+	// <corrupt> flipped (-1 for neither)
+	private Path crashCopy(Path log, long cut, long corrupt) throws Exception
+	{
+		Path copy = dir.resolve("copy" + (copies++) + ".log");
+		byte[] bytes = Files.readAllBytes(log);
+		if (cut >= 0)
+			bytes = Arrays.copyOf(bytes, (int) cut);
+		if (corrupt >= 0)
+			bytes[(int) corrupt] ^= 0x5A;
+		Files.write(copy, bytes);
+		Path snap = Paths.get(log + ".snap");
+		if (Files.exists(snap))
+			Files.copy(snap, Paths.get(copy + ".snap"));
+		return copy;
+	}
+
+	// log offset a snapshot covers (after magic, version, fingerprint and log id)
+	private static long snapshotOffset(Path snap) throws Exception
+	{
+		return java.nio.ByteBuffer.wrap(Files.readAllBytes(snap)).getLong(24);
+	}
+}
@@ -0,0 +1,121 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the packed-long SteinerApprox against the OrderedTriple version it replaced (kept below as it was, reading the
+// snapshot's distances and next hops instead of the old apsp / path arrays), on random hands with random blocks:
+// same cost, same routes in the same order, same failures; weights are small so closure edges tie all the time,
+// which is where the order of the sort decides the tree
+// one SteinerApprox instance serves every hand, so leftovers from a bigger hand can't leak into a smaller one
+public class SteinerApproxTest
+{
+	@TempDir
+	Path dir;
+
+	@Test
+	public void matchesOrderedTripleVersion() throws Exception
+	{
+		Random random = new Random(9);
+		SteinerApprox scratch = new SteinerApprox();
+		int unreachable = 0;
+		for (int round = 0; round < 80; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 2 + random.nextInt(40), round % 3 == 0));
+			int n = session.getMap().size();
+			for (int hand = 0; hand < 10; ++hand)
+			{
+				SessionSnapshot model = RandomMaps.hand(session, random, random.nextInt(n), random.nextInt(1 + n / 4));
+				String what = model.getTicketSet() + " blocked " + model.getBlockedRoutes();
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> expected = orderedTriple(model);
+
+				int[] terminals = model.terminals();
+				int cost = scratch.solve(model, terminals, terminals.length);
+				if (expected == null)
+				{
+					assertEquals(-1, cost, what);
+					Exception ex = assertThrows(Exception.class, model::steinerTreeApprox, what);
+					assertTrue(ex.getMessage().contains("Unable to connect"), ex.getMessage());
+					++unreachable;
+					continue;
+				}
+				assertEquals((int) expected.first(), cost, what);
+				ArrayList<OrderedTriple<Integer, Integer, Integer>> routes = new ArrayList<>();
+				for (int i = 0; i < scratch.routeCount(); ++i)
+					routes.add(new OrderedTriple<>(scratch.routeFrom(i), scratch.routeTo(i), 0));
+				assertEquals(expected.second().toString(), routes.toString(), what);
+
+				Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = model.steinerTreeApprox();
+				assertEquals(expected.first(), result.first(), what);
+				assertEquals(expected.second().toString(), result.second().toString(), what);
+			}
+		}
+		assertTrue(unreachable > 0); // the blocks cut some hands off
+	}
+
+	// the old Ticket2Ride.steinerTreeApprox, null where it threw "Unable to connect all cities"
+	private static Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> orderedTriple(SessionSnapshot model)
+	{
+		Set<Integer> cities = model.getCityUsages().keySet();
+
+		// step 1: build metric closure of cities (in form of edge list)
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> edgeList = new ArrayList<>();
+		for (int city : cities)
+			for (int city2 : cities)
+				if (city != city2)
+					edgeList.add(new OrderedTriple<>(model.distance(city, city2), city, city2)); // form: weight, u, v; sort by weight
+		Collections.sort(edgeList);
+
+		// step 2: find MST of cities on metric closure graph
+		int n = model.getGraph().size();
+		int[] parent = new int[n], size = new int[n];
+		for (int i = 0; i < n; ++i)
+		{
+			parent[i] = i;
+			size[i] = 1;
+		}
+		ArrayList<OrderedTriple<Integer, Integer, Integer>> mst = new ArrayList<>();
+		int mst_cost = 0;
+		for (OrderedTriple<Integer, Integer, Integer> nextEdge : edgeList)
+		{
+			int ru = find(parent, nextEdge.second()), rv = find(parent, nextEdge.third());
+			if (ru != rv)
+			{
+				mst.add(nextEdge);
+				mst_cost += nextEdge.first();
+				if (mst_cost >= 1000000)
+					return null; // cost over 1 million, so algorithm had no choice but to use a blocked route
+				parent[rv] = ru;
+				size[ru] += size[rv];
+			}
+			if (size[find(parent, nextEdge.second())] == cities.size())
+				break; // all cities connected, can quit early
+		}
+
+		// step 3: expand edges in metric closure mst to full paths in original graph
+		TreeSet<OrderedTriple<Integer, Integer, Integer>> routes = new TreeSet<>();
+		for (OrderedTriple<Integer, Integer, Integer> edge : mst)
+		{
+			int currentV = edge.second();
+			int lastV = edge.third();
+			while (currentV != lastV)
+			{
+				int nextV = model.nextHop(currentV, lastV);
+				if (!routes.add(new OrderedTriple<>(currentV, nextV, 0)))
+					mst_cost -= model.edgeWeight(currentV, nextV); // duplicate edge! reduce cost
+				currentV = nextV;
+			}
+		}
+		return new Pair<>(mst_cost, new ArrayList<>(routes));
+	}
+
+	private static int find(int[] parent, int x)
+	{
+		while (parent[x] != x)
+			x = parent[x] = parent[parent[x]];
+		return x;
+	}
+}
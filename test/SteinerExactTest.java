@@ -0,0 +1,135 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// exact Steiner trees against brute force on small random maps with random blocks: the cheapest minimum spanning
+// tree over every set of cities holding all the ticket cities is the optimum, and the solver's tree has to cost
+// exactly that, be made of real routes and join every ticket city; sequential and parallel, dense and sparse
+public class SteinerExactTest
+{
+	@TempDir
+	Path dir;
+
+	@Test
+	public void matchesBruteForce() throws Exception
+	{
+		Random random = new Random(3);
+		int unreachable = 0;
+		for (int round = 0; round < 60; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 2 + random.nextInt(9), round % 3 == 0));
+			for (int hand = 0; hand < 10; ++hand)
+			{
+				SessionSnapshot model = RandomMaps.hand(session, random, random.nextInt(6), random.nextInt(3));
+				if (!check(model, 1))
+					++unreachable;
+				check(model, 3);
+			}
+		}
+		assertTrue(unreachable > 0); // the blocks cut some hands off
+	}
+
+	@Test
+	public void nothingToConnect() throws Exception
+	{
+		Random random = new Random(4);
+		Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 5, false));
+		SessionSnapshot model = session.publish(true);
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = new SteinerExact(model, new int[0]).solve();
+		assertEquals(0, (int) result.first());
+		assertTrue(result.second().isEmpty());
+		result = new SteinerExact(model, new int[] { 2 }).solve();
+		assertEquals(0, (int) result.first());
+		assertTrue(result.second().isEmpty());
+	}
+
+	// false if the ticket cities can't be joined without a blocked route
+	private static boolean check(SessionSnapshot model, int parallelism) throws Exception
+	{
+		int[] terminals = model.terminals();
+		int best = bruteForce(model, terminals);
+		String hand = model.getTicketSet() + " blocked " + model.getBlockedRoutes();
+		if (best >= 1000000)
+		{
+			Exception ex = assertThrows(Exception.class, () -> model.steinerTreeExact(parallelism), hand);
+			assertTrue(ex.getMessage().contains("Unable to connect"), ex.getMessage());
+			return false;
+		}
+		Pair<Integer, ArrayList<OrderedTriple<Integer, Integer, Integer>>> result = model.steinerTreeExact(parallelism);
+		assertEquals(best, (int) result.first(), hand);
+
+		// real routes, adding up to the cost, joining every ticket city
+		int n = model.getGraph().size();
+		int[] parent = new int[n];
+		for (int i = 0; i < n; ++i)
+			parent[i] = i;
+		int cost = 0;
+		for (OrderedTriple<Integer, Integer, Integer> route : result.second())
+		{
+			int w = model.edgeWeight(route.first(), route.second());
+			assertTrue(w > 0, "no route " + route);
+			cost += w;
+			parent[find(parent, route.first())] = find(parent, route.second());
+		}
+		assertEquals(best, cost, hand);
+		for (int t : terminals)
+			assertEquals(find(parent, terminals[0]), find(parent, t), hand);
+		return true;
+	}
+
+	// cheapest MST over any set of cities that holds every terminal (blocked routes at their blocked weight)
+	private static int bruteForce(SessionSnapshot model, int[] terminals)
+	{
+		if (terminals.length <= 1)
+			return 0;
+		int n = model.getGraph().size();
+		int required = 0;
+		for (int t : terminals)
+			required |= 1 << t;
+		int best = Integer.MAX_VALUE;
+		for (int set = 0; set < 1 << n; ++set)
+			if ((set & required) == required)
+				best = Math.min(best, mst(model, set));
+		return best;
+	}
+
+	// Prim over the cities in <set>, MAX_VALUE if they aren't connected
+	private static int mst(SessionSnapshot model, int set)
+	{
+		int n = model.getGraph().size();
+		int[] d = new int[n];
+		Arrays.fill(d, Integer.MAX_VALUE);
+		boolean[] in = new boolean[n];
+		d[Integer.numberOfTrailingZeros(set)] = 0;
+		int total = 0;
+		for (int left = Integer.bitCount(set); left > 0; --left)
+		{
+			int u = -1;
+			for (int v = 0; v < n; ++v)
+				if ((set >> v & 1) != 0 && !in[v] && (u == -1 || d[v] < d[u]))
+					u = v;
+			if (d[u] == Integer.MAX_VALUE)
+				return Integer.MAX_VALUE;
+			in[u] = true;
+			total += d[u];
+			for (int v = 0; v < n; ++v)
+			{
+				int w = model.edgeWeight(u, v);
+				if ((set >> v & 1) != 0 && !in[v] && w > 0 && w < d[v])
+					d[v] = w;
+			}
+		}
+		return total;
+	}
+
+	private static int find(int[] parent, int x)
+	{
+		while (parent[x] != x)
+			x = parent[x] = parent[parent[x]];
+		return x;
+	}
+}
@@ -0,0 +1,104 @@
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the ticket optimizer against every subset of the hand, on small random maps with random blocks and train counts
+// a subset fits if its approximate tree (what "path MST" prints) needs at most the trains left; the best one keeps
+// the most points, then needs the fewest trains, then has the lowest mask over the tickets sorted most points first,
+// and the optimizer has to pick exactly that one, with or without threads
+public class TicketOptimizerTest
+{
+	@TempDir
+	Path dir;
+
+	@Test
+	public void matchesBruteForce() throws Exception
+	{
+		Random random = new Random(8);
+		for (int round = 0; round < 40; ++round)
+		{
+			Ticket2Ride session = new Ticket2Ride(RandomMaps.map(dir, random, 3 + random.nextInt(15), false));
+			for (int hand = 0; hand < 8; ++hand)
+			{
+				SessionSnapshot model = RandomMaps.hand(session, random, random.nextInt(9), random.nextInt(3));
+				Ticket[] tickets = model.getTicketSet().toArray(new Ticket[0]);
+				Arrays.sort(tickets, (x, y) -> x.points() != y.points() ? Integer.compare(y.points(), x.points()) : x.compareTo(y));
+				int trains = random.nextInt(5 + 3 * model.getGraph().size());
+				long best = bruteForce(model, tickets, trains);
+				String what = model.getTicketSet() + " blocked " + model.getBlockedRoutes() + ", " + trains + " trains";
+
+				for (int parallelism : new int[] { 1, 4 })
+				{
+					TicketOptimizer.Selection selection = new TicketOptimizer(model, trains).solve(parallelism, 60000);
+					assertTrue(selection.complete, what);
+					assertEquals(subset(tickets, best), new ArrayList<>(selection.kept), what);
+					assertEquals(score(tickets, best), selection.score, what);
+					assertEquals(best == 0 ? 0 : cost(model, tickets, best), (int) selection.plan.first(), what);
+					assertTrue(selection.plan.first() <= trains, what);
+					assertEquals(tickets.length, selection.kept.size() + selection.dropped.size());
+				}
+			}
+		}
+	}
+
+	// the best subset of <tickets> by the rules at the top
+	private static long bruteForce(SessionSnapshot model, Ticket[] tickets, int trains)
+	{
+		long best = 0;
+		int bestScore = score(tickets, 0), bestCost = 0;
+		for (long mask = 1; mask < 1L << tickets.length; ++mask)
+		{
+			int cost = cost(model, tickets, mask);
+			if (cost < 0 || cost > trains)
+				continue;
+			int score = score(tickets, mask);
+			if (score > bestScore || (score == bestScore && cost < bestCost))
+			{
+				best = mask;
+				bestScore = score;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	// kept points - dropped points
+	private static int score(Ticket[] tickets, long mask)
+	{
+		int score = 0;
+		for (int i = 0; i < tickets.length; ++i)
+			score += (mask >>> i & 1) != 0 ? tickets[i].points() : -tickets[i].points();
+		return score;
+	}
+
+	private static int cost(SessionSnapshot model, Ticket[] tickets, long mask)
+	{
+		TreeSet<Integer> cities = new TreeSet<>();
+		for (int i = 0; i < tickets.length; ++i)
+		{
+			if ((mask >>> i & 1) != 0)
+			{
+				cities.add(tickets[i].aIdx());
+				cities.add(tickets[i].bIdx());
+			}
+		}
+		int[] terminals = new int[cities.size()];
+		int j = 0;
+		for (int city : cities)
+			terminals[j++] = city;
+		return new SteinerApprox().solve(model, terminals, terminals.length);
+	}
+
+	private static ArrayList<Ticket> subset(Ticket[] tickets, long mask)
+	{
+		ArrayList<Ticket> kept = new ArrayList<>();
+		for (int i = 0; i < tickets.length; ++i)
+			if ((mask >>> i & 1) != 0)
+				kept.add(tickets[i]);
+		return kept;
+	}
+}